@@ -0,0 +1,89 @@
+package org.mipt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ходы на поле Battle, проверка обязательного взятия, вывод поля и вся партия из input.txt
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BattleBenchmark {
+    static final List<String> GAME = List.of(
+            "a1 a3 b2 c1 c3 d2 e1 e3 f2 g1 g3 h2",
+            "a7 b6 b8 c7 d6 d8 e7 f6 f8 g7 h6 h8",
+            "g3-f4 f6-e5",
+            "c3-d4 e5:c3",
+            "b2:d4 d6-c5",
+            "d2-c3 g7-f6",
+            "h2-g3 h8-g7",
+            "c1-b2 f6-g5",
+            "g3-h4 g7-f6",
+            "f4-e5 f8-g7");
+
+    Main.Battle battle;
+    Main.Battle take;
+    int e1;
+    int d2;
+    int c3;
+    int e5;
+
+    @Setup
+    public void setUp() throws Exception {
+        battle = Main.play(List.of(ParseBenchmark.WHITE, ParseBenchmark.BLACK));
+        take = Main.play(List.of("c3 e1", "d4 h8"));
+        e1 = Main.square("e1", 0, 2);
+        d2 = Main.square("d2", 0, 2);
+        c3 = Main.square("c3", 0, 2);
+        e5 = Main.square("e5", 0, 2);
+    }
+
+    // ход и ход обратно, чтобы позиция не менялась
+    @Benchmark
+    public Main.Battle move() throws Exception {
+        battle.move(e1, false, d2, false, Main.DRAUGHT.WHITE);
+        battle.move(d2, false, e1, false, Main.DRAUGHT.WHITE);
+        return battle;
+    }
+
+    // взятие c3:e5, затем возврат позиции
+    @Benchmark
+    public Main.Battle moveWithTake() throws Exception {
+        int white = take.white;
+        int black = take.black;
+        take.moveWithTake(c3, false, e5, false, Main.DRAUGHT.WHITE);
+        take.white = white;
+        take.black = black;
+        return take;
+    }
+
+    @Benchmark
+    public boolean checkTake() {
+        return battle.checkTake(Main.DRAUGHT.WHITE);
+    }
+
+    @Benchmark
+    public String battleToString() {
+        return battle.battleToString();
+    }
+
+    @Benchmark
+    public Main.Battle replay() throws Exception {
+        return Main.play(GAME);
+    }
+}
@@ -0,0 +1,24 @@
+package org.mipt;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * запуск всех бенчмарков с профилем аллокаций (gc.alloc.rate.norm - байт на операцию)
+ * <p>
+ * mvn -P jmh compile exec:exec, аргументы JMH можно передать через -Djmh.args
+ */
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .include("org\\.mipt\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,97 @@
+package org.mipt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * оценок позиции в секунду: Evaluator после хода (сумма по шашкам меняется на Evaluator.move, как в Search),
+ * Evaluator с нуля, пачка позиций
+ * и оценка Search для сравнения. позиции - случайные партии из начальной расстановки
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EvaluatorBenchmark {
+    static final int POSITIONS = 1024;
+
+    final int[] white = new int[POSITIONS];
+    final int[] black = new int[POSITIONS];
+    final int[] kings = new int[POSITIONS];
+    final int[] scores = new int[POSITIONS];
+    int next;
+
+    Main.Battle battle;
+    final MoveList list = new MoveList();
+    int moves;
+    // Evaluator.pieces поля battle
+    int pieces;
+
+    @Setup
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        Main.Battle start = Main.play(List.of(ParseBenchmark.WHITE, ParseBenchmark.BLACK));
+        MoveList moves = new MoveList();
+        for (int count = 0; count < POSITIONS; ) {
+            Main.Battle game = new Main.Battle(start);
+            boolean side = true;
+            for (int ply = 0; ply < 60 && count < POSITIONS; ply++) {
+                int n = MoveGenerator.generate(game, side ? Main.DRAUGHT.WHITE : Main.DRAUGHT.BLACK, moves);
+                if (n == 0) break;
+                game.make(moves, random.nextInt(n));
+                side = !side;
+                white[count] = game.white;
+                black[count] = game.black;
+                kings[count++] = game.kings;
+            }
+        }
+        battle = Main.play(BattleBenchmark.GAME);
+        this.moves = MoveGenerator.generate(battle, Main.DRAUGHT.WHITE, list);
+        pieces = Evaluator.pieces(battle.white, battle.black, battle.kings);
+    }
+
+    // ход, оценка, отмена хода
+    @Benchmark
+    public int incremental() {
+        int i = next++ % moves;
+        int after = pieces + Evaluator.move(true, list.moves[i], list.captures[i], battle.kings);
+        battle.make(list, i);
+        int score = Evaluator.evaluate(after, battle.white, battle.black, battle.kings);
+        battle.unmake();
+        return score;
+    }
+
+    @Benchmark
+    public int full() {
+        int i = next++ & (POSITIONS - 1);
+        return Evaluator.evaluate(white[i], black[i], kings[i]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POSITIONS)
+    public int[] batch() {
+        Evaluator.evaluate(white, black, kings, POSITIONS, scores);
+        return scores;
+    }
+
+    @Benchmark
+    public int search() {
+        int i = next++ & (POSITIONS - 1);
+        return Search.evaluate(white[i], black[i], kings[i], true);
+    }
+}
@@ -0,0 +1,54 @@
+package org.mipt;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * разбор нотации: клетка, строка позиций, ход
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+    static final String WHITE = "a1 a3 b2 c3 d4 e1 e3 e5 f2 g1 h4";
+    static final String BLACK = "a7 b6 b8 c5 c7 d8 e7 f6 g5 g7 h6";
+
+    Main.Battle battle;
+
+    @Setup
+    public void setUp() throws Exception {
+        battle = Main.play(List.of(WHITE, BLACK));
+    }
+
+    @Benchmark
+    public Main.Position checkPosition() throws Exception {
+        return Main.checkPosition("e3", Main.DRAUGHT.WHITE);
+    }
+
+    @Benchmark
+    public List<Main.Position> getPositions() throws Exception {
+        return Main.getPositions(WHITE, Main.DRAUGHT.WHITE);
+    }
+
+    // ход и ход обратно, чтобы позиция не менялась
+    @Benchmark
+    public Main.Battle parse() throws Exception {
+        Main.parse(battle, "e1-d2", Main.DRAUGHT.WHITE);
+        Main.parse(battle, "d2-e1", Main.DRAUGHT.WHITE);
+        return battle;
+    }
+}
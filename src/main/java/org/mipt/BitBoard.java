@@ -0,0 +1,145 @@
+package org.mipt;
+
+import java.util.Arrays;
+
+/**
+ * битовые маски для 32 черных клеток доски
+ * <p>
+ * клетка с номером s: горизонталь (1-8) = s / 4 + 1, вертикаль a-h - та черная клетка ряда,
+ * у которой номер в ряду s % 4. a1 = 0, c1 = 1, ..., b2 = 4, ..., h8 = 31
+ */
+final class BitBoard {
+
+    // направления диагоналей (вверх - в сторону восьмой горизонтали)
+    static final int UP_LEFT = 0;
+    static final int UP_RIGHT = 1;
+    static final int DOWN_LEFT = 2;
+    static final int DOWN_RIGHT = 3;
+
+    // все клетки доски
+    static final int ALL = 0xFFFFFFFF;
+
+    // горизонтали 1, 3, 5, 7 и 2, 4, 6, 8
+    static final int ODD_RANKS = 0x0F0F0F0F;
+    static final int EVEN_RANKS = 0xF0F0F0F0;
+
+    // вертикали a и h
+    static final int FILE_A = 0x01010101;
+    static final int FILE_H = 0x80808080;
+
+    // первая и восьмая горизонтали
+    static final int RANK_1 = 0x0000000F;
+    static final int RANK_8 = 0xF0000000;
+
+    // лучи: клетки от square в направлении direction до края доски, по порядку (саму клетку не включают)
+    private static final int[][][] RAYS = new int[32][4][];
+    // обе диагонали через клетку, вместе с самой клеткой
+    private static final int[] DIAGONALS = new int[32];
+
+    static {
+        for (int square = 0; square < 32; square++) {
+            int mask = 1 << square;
+            for (int direction = UP_LEFT; direction <= DOWN_RIGHT; direction++) {
+                int[] ray = new int[7];
+                int length = 0;
+                for (int next = shift(1 << square, direction); next != 0; next = shift(next, direction)) {
+                    ray[length++] = Integer.numberOfTrailingZeros(next);
+                    mask |= next;
+                }
+                RAYS[square][direction] = Arrays.copyOf(ray, length);
+            }
+            DIAGONALS[square] = mask;
+        }
+    }
+
+    private BitBoard() {
+    }
+
+    /**
+     * сдвигает все клетки маски на одну клетку по диагонали
+     *
+     * @param mask      маска клеток
+     * @param direction направление
+     * @return маска соседних клеток, ушедшие за край доски отбрасываются
+     */
+    static int shift(int mask, int direction) {
+        switch (direction) {
+            case UP_LEFT:
+                return ((mask & ODD_RANKS & ~FILE_A) << 3) | ((mask & EVEN_RANKS) << 4);
+            case UP_RIGHT:
+                return ((mask & ODD_RANKS) << 4) | ((mask & EVEN_RANKS & ~FILE_H) << 5);
+            case DOWN_LEFT:
+                return ((mask & ODD_RANKS & ~FILE_A) >>> 5) | ((mask & EVEN_RANKS) >>> 4);
+            default:
+                return ((mask & ODD_RANKS) >>> 4) | ((mask & EVEN_RANKS & ~FILE_H) >>> 3);
+        }
+    }
+
+    /**
+     * соседняя клетка по диагонали
+     *
+     * @return номер клетки или -1 если за краем доски
+     */
+    static int step(int square, int direction) {
+        int[] ray = RAYS[square][direction];
+        return ray.length == 0 ? -1 : ray[0];
+    }
+
+    /**
+     * луч от клетки до края доски
+     *
+     * @return клетки по порядку от соседней; общий массив, менять нельзя
+     */
+    static int[] ray(int square, int direction) {
+        return RAYS[square][direction];
+    }
+
+    // номер клетки по вертикали (0-7, a-h) и горизонтали (1-8)
+    static int square(int file, int rank) {
+        return (rank - 1) * 4 + file / 2;
+    }
+
+    // горизонталь клетки, 1-8
+    static int rank(int square) {
+        return square / 4 + 1;
+    }
+
+    // вертикаль клетки, 0-7 (a-h)
+    static int file(int square) {
+        return (square % 4) * 2 + (square / 4) % 2;
+    }
+
+    /**
+     * направление от from к to, как его определял getDiagonal
+     *
+     * @return направление или -1, если клетки на одной горизонтали или вертикали
+     */
+    static int direction(int from, int to) {
+        int rank = rank(to) - rank(from);
+        int file = file(to) - file(from);
+        if (rank == 0 || file == 0) return -1;
+        if (rank > 0) return file < 0 ? UP_LEFT : UP_RIGHT;
+        return file < 0 ? DOWN_LEFT : DOWN_RIGHT;
+    }
+
+    // клетки обеих диагоналей, проходящих через square
+    static int diagonals(int square) {
+        return DIAGONALS[square];
+    }
+
+    // true если клетки лежат на одной диагонали
+    static boolean onDiagonal(int from, int to) {
+        return Math.abs(rank(to) - rank(from)) == Math.abs(file(to) - file(from));
+    }
+
+    // сколько клеток до края доски в направлении direction
+    static int length(int square, int direction) {
+        return RAYS[square][direction].length;
+    }
+
+    // название клетки, например c3 или C3 для дамки
+    static String name(int square, boolean upper) {
+        char file = (char) ((upper ? 'A' : 'a') + file(square));
+        return file + Integer.toString(rank(square));
+    }
+}
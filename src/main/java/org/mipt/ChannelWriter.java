@@ -0,0 +1,91 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * запись текста в канал в UTF-8 через один буфер: в канал уходит только полный буфер
+ * (и остаток при закрытии), а не каждая строка. ASCII кладется в буфер напрямую, без кодировщика
+ */
+class ChannelWriter implements Closeable {
+    static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    ChannelWriter(WritableByteChannel channel) {
+        this(channel, BUFFER_SIZE);
+    }
+
+    /**
+     * @param channel канал
+     * @param size    размер буфера в байтах
+     */
+    ChannelWriter(WritableByteChannel channel, int size) {
+        this.channel = channel;
+        buffer = ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * добавляет текст
+     *
+     * @param text текст
+     * @return this
+     * @throws IOException если ошибка записи
+     */
+    ChannelWriter append(CharSequence text) throws IOException {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                encode(text, i);
+                return this;
+            }
+            if (!buffer.hasRemaining()) flush();
+            buffer.put((byte) c);
+        }
+        return this;
+    }
+
+    // текст с первым не ASCII символом - через кодировщик
+    private void encode(CharSequence text, int from) throws IOException {
+        CharBuffer chars = CharBuffer.wrap(text, from, text.length());
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                flush();
+                continue;
+            }
+            if (result.isError()) result.throwException();
+            break;
+        }
+        while (encoder.flush(buffer).isOverflow()) flush();
+    }
+
+    /**
+     * пишет содержимое буфера в канал
+     *
+     * @throws IOException если ошибка записи
+     */
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.mipt;
+
+/**
+ * оценка позиции по таблицам: материал, дамки, продвижение простых шашек (темп), центр, большак для дамок
+ * и шаблон первой горизонтали
+ * <p>
+ * все, кроме шаблона, - сумма по шашкам из таблицы PIECES[вид][клетка], поэтому после хода оценка меняется
+ * на разность нескольких значений (см. move, так ее ведет Search). шаблон первой горизонтали - таблица
+ * BACK_RANK по четырем битам маски простых шашек на своей первой горизонтали. оценка с нуля - сумма таблиц
+ * BYTES по байтам масок (16 чтений, без цикла по шашкам), так же считается и пачка позиций.
+ * оценка - с точки зрения белых, черные - зеркало белых (клетка s у черных - клетка 31 - s у белых)
+ */
+final class Evaluator {
+    static final int MAN = Search.MAN;
+    static final int KING = Search.KING;
+    // за каждую горизонталь, пройденную простой шашкой
+    static final int TEMPO = 2;
+    // простая шашка и дамка на полях c3-f6
+    static final int CENTRE_MAN = 4;
+    static final int CENTRE_KING = 6;
+    // дамка на большой диагонали a1-h8
+    static final int MAIN_DIAGONAL_KING = 10;
+    // простая шашка на своей первой горизонтали и пара c1, e1 (у черных f8, d8)
+    static final int BACK_MAN = 3;
+    static final int BACK_PAIR = 5;
+
+    // [белая простая, белая дамка, черная простая, черная дамка][клетка]
+    private static final int[][] PIECES = new int[4][32];
+    // суммы PIECES по битам байта маски: [вид][номер байта][байт]
+    private static final int[][][] BYTES = new int[4][4][256];
+    // простые шашки на a1, c1, e1, g1 (биты 0-3) -> оценка
+    private static final int[] BACK_RANK = new int[16];
+
+    static {
+        for (int square = 0; square < 32; square++) {
+            int rank = BitBoard.rank(square);
+            int file = BitBoard.file(square);
+            boolean centre = rank >= 3 && rank <= 6 && file >= 2 && file <= 5;
+            PIECES[0][square] = MAN + TEMPO * (rank - 1) + (centre ? CENTRE_MAN : 0);
+            PIECES[1][square] = KING + (centre ? CENTRE_KING : 0) + (file == rank - 1 ? MAIN_DIAGONAL_KING : 0);
+        }
+        for (int square = 0; square < 32; square++) {
+            PIECES[2][square] = -PIECES[0][31 - square];
+            PIECES[3][square] = -PIECES[1][31 - square];
+        }
+        for (int kind = 0; kind < 4; kind++)
+            for (int index = 0; index < 4; index++)
+                for (int value = 0; value < 256; value++)
+                    for (int bits = value; bits != 0; bits &= bits - 1)
+                        BYTES[kind][index][value] += PIECES[kind][index * 8 + Integer.numberOfTrailingZeros(bits)];
+        for (int men = 0; men < 16; men++)
+            BACK_RANK[men] = BACK_MAN * Integer.bitCount(men) + ((men & 0b0110) == 0b0110 ? BACK_PAIR : 0);
+    }
+
+    private Evaluator() {
+    }
+
+    /**
+     * оценка позиции, сумма по шашкам которой уже известна: считается только шаблон
+     *
+     * @param pieces сумма по шашкам (pieces, измененная на move после каждого хода)
+     * @return оценка с точки зрения белых
+     */
+    static int evaluate(int pieces, int white, int black, int kings) {
+        return pieces + pattern(white & ~kings, black & ~kings);
+    }
+
+    /**
+     * оценка позиции с нуля
+     *
+     * @return оценка с точки зрения белых
+     */
+    static int evaluate(int white, int black, int kings) {
+        return pieces(white, black, kings) + pattern(white & ~kings, black & ~kings);
+    }
+
+    /**
+     * оценка пачки позиций, scores[i] - для white[i], black[i], kings[i]
+     *
+     * @param count  число позиций
+     * @param scores оценки с точки зрения белых
+     */
+    static void evaluate(int[] white, int[] black, int[] kings, int count, int[] scores) {
+        for (int i = 0; i < count; i++) scores[i] = evaluate(white[i], black[i], kings[i]);
+    }
+
+    /**
+     * сумма по шашкам без шаблона
+     *
+     * @return оценка с точки зрения белых
+     */
+    static int pieces(int white, int black, int kings) {
+        return sum(BYTES[0], white & ~kings) + sum(BYTES[1], white & kings)
+                + sum(BYTES[2], black & ~kings) + sum(BYTES[3], black & kings);
+    }
+
+    private static int sum(int[][] bytes, int mask) {
+        return bytes[0][mask & 0xFF] + bytes[1][(mask >>> 8) & 0xFF] + bytes[2][(mask >>> 16) & 0xFF]
+                + bytes[3][mask >>> 24];
+    }
+
+    // шаблоны первых горизонталей: у черных биты h8, f8, d8, b8 - зеркало a1, c1, e1, g1
+    private static int pattern(int whiteMen, int blackMen) {
+        return BACK_RANK[whiteMen & 0xF] - BACK_RANK[Integer.reverse(blackMen) & 0xF];
+    }
+
+    /**
+     * изменение суммы по шашкам после хода
+     *
+     * @param white    ходят белые
+     * @param move     ход из MoveList
+     * @param captured взятые шашки
+     * @param kings    дамки до хода
+     * @return значение, которое нужно прибавить к сумме
+     */
+    static int move(boolean white, int move, int captured, int kings) {
+        int from = MoveList.from(move);
+        int to = MoveList.to(move);
+        int own = white ? 0 : 2;
+        int enemy = white ? 2 : 0;
+        int king = (kings & (1 << from)) != 0 ? 1 : 0;
+        int promoted = (move & MoveList.PROMOTION) != 0 ? 1 : king;
+        int delta = PIECES[own + promoted][to] - PIECES[own + king][from];
+        for (; captured != 0; captured &= captured - 1) {
+            int square = Integer.numberOfTrailingZeros(captured);
+            delta -= PIECES[enemy + ((kings & (1 << square)) != 0 ? 1 : 0)][square];
+        }
+        return delta;
+    }
+}
@@ -0,0 +1,373 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * двоичный архив партий с доступом к любой партии по номеру
+ * <p>
+ * файл: заголовок (MAGIC, число партий, смещение индекса), записи партий, индекс - смещения начала
+ * каждой записи и конца последней (long). запись партии: байт флагов, затем
+ * <ul>
+ * <li>для TEXT - строки партии в UTF-8, каждая с '\n' в конце</li>
+ * <li>иначе число белых шашек и их клетки, число черных и их клетки, затем ходы до конца записи</li>
+ * </ul>
+ * клетка - байт: номер 0-31 (см. BitBoard) и SQUARE_UPPER, если в тексте она была заглавной.
+ * простой ход - два байта: клетка откуда с BLACK_MOVE для хода черных и клетка куда.
+ * взятие - байт CAPTURE | BLACK_MOVE | число клеток, затем клетки цепочки
+ * <p>
+ * java -jar Draughts.jar archive pack &lt;каталог или файл с партиями&gt; &lt;архив&gt;
+ * <br>
+ * java -jar Draughts.jar archive replay &lt;архив&gt; [файл результатов] - результаты как в пакетном режиме
+ * <br>
+ * java -jar Draughts.jar archive show &lt;архив&gt; N - игровое поле партии N (с 0)
+ * <br>
+ * java -jar Draughts.jar archive index | ply ... - поле партии после хода N, см. PlyIndex
+ */
+class GameArchive implements Closeable {
+    static final int MAGIC = 0x44474131;
+    static final int HEADER_BYTES = 16;
+    // флаги записи
+    static final int TEXT = 1;
+    static final int BLACK_TO_MOVE = 2;
+    // байты ходов
+    static final int SQUARE_UPPER = 0x20;
+    static final int BLACK_MOVE = 0x40;
+    static final int CAPTURE = 0x80;
+    static final int MAX_CHAIN = 0x3F;
+    static final int MAX_PIECES = 0xFF;
+
+    private final FileChannel channel;
+    // архив больше 2 ГБ отображается несколькими окнами, смещения - long
+    private final MappedFile buffer;
+    private final int count;
+    private final long index;
+
+    private GameArchive(FileChannel channel) throws IOException {
+        this.channel = channel;
+        buffer = new MappedFile(channel);
+        if (buffer.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC) throw new IOException("не архив партий");
+        count = buffer.getInt(4);
+        index = buffer.getLong(8);
+    }
+
+    /**
+     * открывает архив
+     *
+     * @param file файл архива
+     * @return архив
+     * @throws IOException если файл не архив или ошибка чтения
+     */
+    static GameArchive open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new GameArchive(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static void run(String[] args) {
+        try {
+            if (args.length >= 3 && args[0].equals("pack")) {
+                pack(Paths.get(args[1]), Paths.get(args[2]));
+            } else if (args.length >= 2 && args[0].equals("replay")) {
+                replay(Paths.get(args[1]), Paths.get(args.length > 2 ? args[2] : "output.txt"));
+            } else if (args.length >= 3 && args[0].equals("show")) {
+                try (GameArchive archive = open(Paths.get(args[1]))) {
+                    int game = Integer.parseInt(args[2]);
+                    System.out.println(archive.contains(game) ? archive.validate(game) : archive.missing(game));
+                }
+            } else if (args.length >= 2 && args[0].equals("index")) {
+                index(args);
+            } else if (args.length >= 4 && args[0].equals("ply")) {
+                ply(args);
+            } else {
+                System.out.println("archive pack <каталог или файл с партиями> <архив>"
+                        + " | archive replay <архив> [файл результатов] | archive show <архив> N"
+                        + " | archive index <архив> [индекс] [--every=K] | archive ply <архив> N ход [индекс]");
+            }
+        } catch (IOException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    // партии из текста в архив
+    private static void pack(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        int games = 0;
+        int text = 0;
+        try (MappedGameReader reader = new MappedGameReader(input);
+             GameArchiveWriter writer = new GameArchiveWriter(FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            List<CharSequence> game;
+            while ((game = reader.next()) != null) {
+                games++;
+                if (!writer.write(game)) text++;
+            }
+        }
+        System.out.printf("партий %d (текстом %d), %d -> %d байт, %d мс%n", games, text,
+                input.toFile().isFile() ? input.toFile().length() : 0, output.toFile().length(),
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // все партии архива, результаты как в Main.batch
+    private static void replay(Path input, Path output) throws IOException {
+        long start = System.nanoTime();
+        try (GameArchive archive = open(input);
+             ChannelWriter writer = new ChannelWriter(FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            for (int i = 0; i < archive.size(); i++) Main.writeResult(writer, archive.validate(i));
+            System.out.printf("партий %d, %d мс%n", archive.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    // поля после каждых K ходов партий архива: index <архив> [индекс] [--every=K]
+    private static void index(String[] args) throws IOException {
+        long start = System.nanoTime();
+        int every = PlyIndex.DEFAULT_EVERY;
+        String file = args[1] + ".ply";
+        for (int i = 2; i < args.length; i++) {
+            if (args[i].startsWith("--every=")) every = Integer.parseInt(args[i].substring("--every=".length()));
+            else file = args[i];
+        }
+        try (GameArchive archive = open(Paths.get(args[1]))) {
+            int count = PlyIndex.build(archive, Paths.get(file), every);
+            System.out.printf("партий %d, полей %d, %d байт, %d мс%n", archive.size(), count,
+                    Paths.get(file).toFile().length(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    // поле партии после хода: ply <архив> N ход [индекс], без файла индекса - с начала партии
+    private static void ply(String[] args) throws IOException {
+        Path file = Paths.get(args.length > 4 ? args[4] : args[1] + ".ply");
+        try (GameArchive archive = open(Paths.get(args[1]));
+             PlyIndex index = file.toFile().isFile() ? PlyIndex.open(file, archive) : null) {
+            int game = Integer.parseInt(args[2]);
+            System.out.println(archive.contains(game)
+                    ? PlyIndex.position(archive, index, game, Integer.parseInt(args[3])) : archive.missing(game));
+        }
+    }
+
+    /**
+     * @return число партий
+     */
+    int size() {
+        return count;
+    }
+
+    /**
+     * @param game номер партии
+     * @return true если такая партия есть в архиве
+     */
+    boolean contains(int game) {
+        return game >= 0 && game < count;
+    }
+
+    // сообщение для номера партии, которой нет
+    private String missing(int game) {
+        return "нет партии " + game + ", партий в архиве " + count;
+    }
+
+    /**
+     * проверяет партию, как Main.validate
+     *
+     * @param game номер партии
+     * @return игровое поле в виде строки или текст ошибки
+     */
+    String validate(int game) {
+        return validate(game, null);
+    }
+
+    /**
+     * то же, с результатом из таблиц эндшпиля
+     *
+     * @param game      номер партии
+     * @param tablebase таблицы эндшпиля или null
+     * @return игровое поле в виде строки или текст ошибки
+     */
+    String validate(int game, Tablebase tablebase) {
+        long start = start(game);
+        if ((buffer.get(start) & TEXT) != 0) return Main.validate(lines(game), tablebase);
+        long time = Metrics.start();
+        String result;
+        try {
+            Main.DRAUGHT draught = (buffer.get(start) & BLACK_TO_MOVE) != 0 ? Main.DRAUGHT.BLACK : Main.DRAUGHT.WHITE;
+            Main.Battle battle = replay(game);
+            time = Metrics.validated(time);
+            result = Main.describe(battle, draught, tablebase);
+        } catch (Main.WhiteSquareException | Main.CheckRuleException e) {
+            time = Metrics.failed(e, time);
+            result = e.getMessage();
+        } catch (RuntimeException e) {
+            time = Metrics.failed(e, time);
+            result = "error " + e;
+        }
+        Metrics.serialized(time);
+        return result;
+    }
+
+    /**
+     * разыгрывает партию на Battle, так же как Main.play разыгрывает ее текст
+     *
+     * @param game номер партии
+     * @return игровое поле после всех ходов
+     * @throws Main.WhiteSquareException если белая клетка
+     * @throws Main.CheckRuleException   если ошибка
+     */
+    Main.Battle replay(int game) throws Main.WhiteSquareException, Main.CheckRuleException {
+        if (text(game)) return Main.play(lines(game));
+        Main.Battle battle = board(game);
+        long end = end(game);
+        for (long position = moves(game); position < end; ) position = step(battle, position);
+        return battle;
+    }
+
+    /**
+     * @param game номер партии
+     * @return true если партия записана текстом
+     */
+    boolean text(int game) {
+        return (buffer.get(start(game)) & TEXT) != 0;
+    }
+
+    /**
+     * расстановка партии, записанной ходами
+     *
+     * @param game номер партии
+     * @return игровое поле до ходов
+     */
+    Main.Battle board(int game) {
+        long position = start(game) + 1;
+        List<Main.Position> white = new ArrayList<>();
+        List<Main.Position> black = new ArrayList<>();
+        position = positions(position, white, Main.DRAUGHT.WHITE);
+        positions(position, black, Main.DRAUGHT.BLACK);
+        return new Main.Battle(white, black);
+    }
+
+    /**
+     * @param game номер партии, записанной ходами
+     * @return смещение первого хода
+     */
+    long moves(int game) {
+        long position = start(game) + 1;
+        position += 1 + (buffer.get(position) & 0xFF);
+        return position + 1 + (buffer.get(position) & 0xFF);
+    }
+
+    /**
+     * @param game номер партии
+     * @return смещение конца записи
+     */
+    long end(int game) {
+        start(game);
+        return offset(game + 1);
+    }
+
+    /**
+     * @param position смещение хода
+     * @return true если это ход черных
+     */
+    boolean blackMove(long position) {
+        return (buffer.get(position) & BLACK_MOVE) != 0;
+    }
+
+    /**
+     * делает один ход записи, проверки и сообщения как в Main.parse
+     *
+     * @param battle   игровое поле
+     * @param position смещение хода
+     * @return смещение следующего хода
+     * @throws Main.CheckRuleException если ошибка
+     */
+    long step(Main.Battle battle, long position) throws Main.CheckRuleException {
+        int first = buffer.get(position++) & 0xFF;
+        Main.DRAUGHT draught = (first & BLACK_MOVE) != 0 ? Main.DRAUGHT.BLACK : Main.DRAUGHT.WHITE;
+        if ((first & CAPTURE) == 0) {
+            int to = buffer.get(position++);
+            if (battle.checkTake(draught)) throw new Main.CheckRuleException("invalid move");
+            if (battle.check(first & 31, draught)) throw new Main.CheckRuleException("error " + name(first));
+            battle.move(first & 31, upper(first), to & 31, upper(to), draught);
+            Metrics.move();
+            return position;
+        }
+        int size = first & MAX_CHAIN;
+        for (int i = 0; i < size - 1; i++) {
+            int from = buffer.get(position + i);
+            int to = buffer.get(position + i + 1);
+            if (battle.check(from & 31, draught))
+                throw new Main.CheckRuleException("error, not found " + name(from));
+            battle.moveWithTake(from & 31, upper(from), to & 31, upper(to), draught);
+            Metrics.capture();
+        }
+        Metrics.move();
+        return position + size;
+    }
+
+    // шашки одного цвета с position, возвращает конец
+    private long positions(long position, List<Main.Position> list, Main.DRAUGHT draught) {
+        int size = buffer.get(position++) & 0xFF;
+        for (int i = 0; i < size; i++) {
+            int square = buffer.get(position++);
+            char file = (char) ((upper(square) ? 'A' : 'a') + BitBoard.file(square & 31));
+            list.add(new Main.Position(file, BitBoard.rank(square & 31), draught));
+        }
+        return position;
+    }
+
+    // строки партии, записанной текстом
+    List<String> lines(int game) {
+        long position = start(game) + 1;
+        byte[] bytes = new byte[Math.toIntExact(offset(game + 1) - position)];
+        buffer.get(position, bytes);
+        List<String> lines = new ArrayList<>(Arrays.asList(new String(bytes, StandardCharsets.UTF_8).split("\n", -1)));
+        // после последней строки тоже '\n'
+        lines.remove(lines.size() - 1);
+        return lines;
+    }
+
+    // начало записи партии
+    private long start(int game) {
+        if (!contains(game)) throw new IndexOutOfBoundsException("партия " + game + " из " + count);
+        return offset(game);
+    }
+
+    // смещение из индекса: slot от 0 до count, в последнем - конец данных
+    private long offset(int slot) {
+        return buffer.getLong(index + (long) slot * Long.BYTES);
+    }
+
+    /**
+     * @param square клетка 0-31
+     * @param upper  заглавная ли буква в тексте
+     * @return байт клетки
+     */
+    static int square(int square, boolean upper) {
+        return square | (upper ? SQUARE_UPPER : 0);
+    }
+
+    private static boolean upper(int square) {
+        return (square & SQUARE_UPPER) != 0;
+    }
+
+    // название клетки, как в тексте: a1 или A1
+    private static String name(int square) {
+        char file = (char) ((upper(square) ? 'A' : 'a') + BitBoard.file(square & 31));
+        return file + Integer.toString(BitBoard.rank(square & 31));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,179 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * запись партий в двоичный архив (формат см. GameArchive)
+ * <p>
+ * партия из строк формата input.txt кодируется так, как ее разбирает Main.play: позиции через getPositions,
+ * затем ходы, которые play действительно разбирает (ход черных - только если на строке ровно два хода).
+ * если какой-то ход нельзя записать клетками (белая клетка, лишний символ), партия пишется текстом,
+ * чтобы при разборе получились те же ошибки
+ */
+class GameArchiveWriter implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    // начало каждой партии в файле
+    private long[] offsets = new long[1024];
+    private int count;
+    private long position = GameArchive.HEADER_BYTES;
+    // запись текущей партии
+    private byte[] record = new byte[256];
+    private int length;
+    // клетки взятия
+    private final int[] chain = new int[GameArchive.MAX_CHAIN];
+    // ходы белых и черных в строке (Main.split)
+    private final int[] bounds = new int[4];
+
+    /**
+     * @param channel пустой файл архива, открытый на запись
+     * @throws IOException если ошибка записи
+     */
+    GameArchiveWriter(FileChannel channel) throws IOException {
+        this.channel = channel;
+        channel.truncate(0);
+        channel.position(GameArchive.HEADER_BYTES);
+    }
+
+    /**
+     * записывает партию
+     *
+     * @param lines строки партии: позиции белых, позиции черных, затем ходы
+     * @return true если партия записана ходами, false если текстом
+     * @throws IOException если ошибка записи
+     */
+    boolean write(List<? extends CharSequence> lines) throws IOException {
+        length = 0;
+        boolean binary = encode(lines);
+        if (!binary) {
+            length = 0;
+            add(GameArchive.TEXT);
+            for (CharSequence line : lines) {
+                byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                for (byte b : bytes) add(b);
+                add('\n');
+            }
+        }
+        if (count + 1 == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        offsets[count++] = position;
+        put(record, length);
+        position += length;
+        return binary;
+    }
+
+    // партия ходами, false если так записать нельзя
+    private boolean encode(List<? extends CharSequence> lines) {
+        if (lines.size() < 2) return false;
+        add(Main.sideToMove(lines) == Main.DRAUGHT.BLACK ? GameArchive.BLACK_TO_MOVE : 0);
+        if (!positions(lines.get(0)) || !positions(lines.get(1))) return false;
+        for (CharSequence str : lines.subList(2, lines.size())) {
+            int split = Main.split(str, bounds);
+            if (!move(str, bounds[0], bounds[1], false)) return false;
+            if (split == 2 && !move(str, bounds[2], bounds[3], true)) return false;
+        }
+        return true;
+    }
+
+    // число шашек и их клетки
+    private boolean positions(CharSequence line) {
+        List<Main.Position> positions;
+        try {
+            positions = Main.getPositions(line.toString().trim(), Main.DRAUGHT.WHITE);
+        } catch (Main.WhiteSquareException e) {
+            return false;
+        }
+        if (positions.size() > GameArchive.MAX_PIECES) return false;
+        add(positions.size());
+        for (Main.Position position : positions) add(GameArchive.square(position.getSquare(), position.isDame));
+        return true;
+    }
+
+    /**
+     * ход из части строки, разобранный как в Main.parse
+     *
+     * @return false если в ходе есть клетка, которую Main.square не принимает
+     */
+    private boolean move(CharSequence str, int start, int end, boolean black) {
+        int side = black ? GameArchive.BLACK_MOVE : 0;
+        // пустой ход, одна клетка - Main.parse ничего не делает, ход не пишется и не считается
+        if (!Main.makesMove(str, start, end)) return true;
+        try {
+            int dash = Main.indexOf(str, start, end, '-');
+            if (dash >= 0) {
+                int toEnd = Main.indexOf(str, dash + 1, end, '-');
+                if (toEnd < 0) toEnd = end;
+                int from = Main.square(str, start, dash);
+                int to = Main.square(str, dash + 1, toEnd);
+                add(GameArchive.square(from, Character.isUpperCase(str.charAt(start))) | side);
+                add(GameArchive.square(to, Character.isUpperCase(str.charAt(dash + 1))));
+                return true;
+            }
+            while (end > start && str.charAt(end - 1) == ':') end--;
+            int size = 0;
+            for (int from = start; from <= end; ) {
+                int next = Main.indexOf(str, from, end, ':');
+                if (next < 0) next = end;
+                if (size == chain.length) return false;
+                int square = Main.square(str, from, next);
+                chain[size++] = GameArchive.square(square, Character.isUpperCase(str.charAt(from)));
+                from = next + 1;
+            }
+            add(GameArchive.CAPTURE | side | size);
+            for (int i = 0; i < size; i++) add(chain[i]);
+            return true;
+        } catch (Main.WhiteSquareException e) {
+            return false;
+        }
+    }
+
+    private void add(int b) {
+        if (length == record.length) record = Arrays.copyOf(record, length * 2);
+        record[length++] = (byte) b;
+    }
+
+    private void put(byte[] bytes, int size) throws IOException {
+        for (int i = 0; i < size; ) {
+            if (!buffer.hasRemaining()) flush();
+            int n = Math.min(size - i, buffer.remaining());
+            buffer.put(bytes, i, n);
+            i += n;
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * дописывает индекс партий и заголовок
+     *
+     * @throws IOException если ошибка записи
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            offsets[count] = position;
+            for (int i = 0; i <= count; i++) {
+                if (buffer.remaining() < Long.BYTES) flush();
+                buffer.putLong(offsets[i]);
+            }
+            flush();
+            buffer.putInt(GameArchive.MAGIC).putInt(count).putLong(position);
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer, buffer.position());
+            buffer.clear();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * параллельный поиск Lazy SMP: несколько потоков ищут из одной позиции и делятся таблицей транспозиций.
+ * <p>
+ * ход выбирает главный поток (в потоке вызывающего), помощники только заполняют таблицу;
+ * нечетные помощники начинают на полуход глубже, чтобы потоки не считали одно и то же.
+ * с одним потоком - обычный Search без помощников, результат с ограничением по глубине воспроизводим
+ */
+final class LazySmp implements Closeable {
+    private final TranspositionTable table;
+    private final AtomicBoolean abort = new AtomicBoolean();
+    // workers[0] - главный поток
+    private final Search[] workers;
+    private final ExecutorService pool;
+    // дебютная книга или null
+    private final OpeningBook book;
+    private final MoveList bookMoves = new MoveList();
+
+    /**
+     * @param table   общая таблица транспозиций
+     * @param threads число потоков
+     */
+    LazySmp(TranspositionTable table, int threads) {
+        this(table, threads, null);
+    }
+
+    /**
+     * @param table     общая таблица транспозиций
+     * @param threads   число потоков
+     * @param tablebase таблицы эндшпиля или null
+     */
+    LazySmp(TranspositionTable table, int threads, Tablebase tablebase) {
+        this(table, threads, tablebase, null);
+    }
+
+    /**
+     * @param table     общая таблица транспозиций
+     * @param threads   число потоков
+     * @param tablebase таблицы эндшпиля или null
+     * @param book      дебютная книга или null: если позиция в книге, ход берется из нее без поиска
+     */
+    LazySmp(TranspositionTable table, int threads, Tablebase tablebase, OpeningBook book) {
+        this(table, threads, tablebase, book, false);
+    }
+
+    /**
+     * @param table     общая таблица транспозиций
+     * @param threads   число потоков
+     * @param tablebase таблицы эндшпиля или null
+     * @param book      дебютная книга или null
+     * @param tables    true - оценка позиции Evaluator, false - Search.evaluate, одна для всех потоков
+     */
+    LazySmp(TranspositionTable table, int threads, Tablebase tablebase, OpeningBook book, boolean tables) {
+        this.table = table;
+        this.book = book;
+        workers = new Search[Math.max(threads, 1)];
+        for (int i = 0; i < workers.length; i++) workers[i] = new Search(table, abort, tablebase, tables);
+        pool = workers.length > 1 ? Executors.newFixedThreadPool(workers.length - 1, runnable -> {
+            Thread thread = new Thread(runnable, "search");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * ищет лучший ход всеми потоками
+     *
+     * @see Search#search(Main.Battle, Main.DRAUGHT, int, long, boolean)
+     */
+    Search.Result search(Main.Battle battle, Main.DRAUGHT draught, int maxDepth, long millis, boolean print) {
+        boolean white = draught == Main.DRAUGHT.WHITE;
+        int own = white ? battle.white : battle.black;
+        int enemy = white ? battle.black : battle.white;
+        return search(own, enemy, battle.kings, white, Search.hash(battle, white), maxDepth, millis, print);
+    }
+
+    Search.Result search(int own, int enemy, int kings, boolean white, int maxDepth, long millis, boolean print) {
+        return search(own, enemy, kings, white, Search.hash(own, enemy, kings, white), maxDepth, millis, print);
+    }
+
+    private Search.Result search(int own, int enemy, int kings, boolean white, long hash, int maxDepth,
+                                 long millis, boolean print) {
+        if (book != null) {
+            MoveGenerator.generate(own, enemy, kings, white, bookMoves);
+            int i = book.probe(bookMoves, hash);
+            if (i >= 0) {
+                Search.Result result = new Search.Result();
+                result.move = bookMoves.toString(i);
+                result.book = true;
+                if (print) System.out.println(result);
+                return result;
+            }
+        }
+        table.nextAge();
+        abort.set(false);
+        List<Future<Search.Result>> helpers = new ArrayList<>();
+        for (int i = 1; i < workers.length; i++) {
+            Search worker = workers[i];
+            int first = 1 + i % 2;
+            helpers.add(pool.submit(() -> worker.search(own, enemy, kings, white, hash, first, maxDepth, millis,
+                    false)));
+        }
+        Search.Result result = workers[0].search(own, enemy, kings, white, hash, 1, maxDepth, millis, print);
+        abort.set(true);
+        for (Future<Search.Result> helper : helpers) {
+            try {
+                result.nodes += helper.get().nodes;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * замер времени до глубины depth на 1, 2, 4, 8 и 16 потоках, каждый раз с пустой таблицей.
+     * перед замером один прогон для прогрева JIT, из трех замеров берется медиана
+     *
+     * @param tables true - оценка позиции Evaluator
+     */
+    static void speedup(Main.Battle battle, Main.DRAUGHT draught, int depth, int megabytes, boolean tables) {
+        timeToDepth(battle, draught, depth, megabytes, 1, tables);
+        long base = 0;
+        for (int threads = 1; threads <= 16; threads *= 2) {
+            Search.Result[] runs = new Search.Result[3];
+            for (int i = 0; i < runs.length; i++) runs[i] = timeToDepth(battle, draught, depth, megabytes, threads,
+                    tables);
+            Arrays.sort(runs, Comparator.comparingLong(run -> run.nanos));
+            Search.Result result = runs[1];
+            if (threads == 1) base = result.nanos;
+            System.out.printf("%2d потоков: глубина %d за %d мс, ускорение %.2f, %d позиций, %s%n",
+                    threads, result.depth, result.nanos / 1_000_000, (double) base / Math.max(result.nanos, 1),
+                    result.nodes, result.move);
+        }
+    }
+
+    private static Search.Result timeToDepth(Main.Battle battle, Main.DRAUGHT draught, int depth, int megabytes,
+                                             int threads, boolean tables) {
+        try (LazySmp smp = new LazySmp(new TranspositionTable(megabytes), threads, null, null, tables)) {
+            return smp.search(battle, draught, depth, 0, false);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) pool.shutdownNow();
+    }
+}
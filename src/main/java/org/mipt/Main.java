@@ -2,49 +2,377 @@ package org.mipt;
 
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public class Main {
 
+    // разделитель партий в файле с несколькими партиями и в файле результатов
+    static final String GAME_DELIMITER = "---";
+
+    // сколько партий на поток может быть в работе одновременно в пакетном режиме
+    private static final int GAMES_PER_THREAD = 64;
+
     public static void main(String[] args) {
 
+        // java -jar Draughts.jar perft N [файл с позицией] [white|black]
+        if (args.length > 0 && args[0].equals("perft")) {
+            Perft.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
 
-        try {
-            List<String> list = readFile("input.txt");
-            if (list.isEmpty()) throw new CheckRuleException("Пустой список!");
-            List<Position> whitePositions = getPositions(list.get(0).trim(), DRAUGHT.WHITE);
-
-            List<Position> blackPositions = getPositions(list.get(1).trim(), DRAUGHT.BLACK);
-            Battle battle = new Battle(whitePositions, blackPositions);
-
-            // удаление первых двух строк с фигурами
-            list.remove(0);
-            list.remove(0);
-            if (list.size() > 0) {
-                for (String str : list) {
-                    String[] moves = str.trim().split(" ");
-                    String moveWhiteStr = moves[0];
-                    parse(battle, moveWhiteStr, DRAUGHT.WHITE);
-                    if (moves.length == 2) {
-                        String moveBlackStr = moves[1];
-                        parse(battle, moveBlackStr, DRAUGHT.BLACK);
-                    }
+        // java -jar Draughts.jar search <файл партии> [--depth=N] [--time=мс]
+        if (args.length > 0 && args[0].equals("search")) {
+            Search.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar pdn import <файл.pdn> [файл результатов] | pdn export <файл с партиями> <файл.pdn>
+        if (args.length > 0 && args[0].equals("pdn")) {
+            PdnGame.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar archive pack <партии> <архив> | archive replay <архив> [файл] | archive show <архив> N
+        // | archive index <архив> [индекс] [--every=K] | archive ply <архив> N ход [индекс]
+        if (args.length > 0 && args[0].equals("archive")) {
+            GameArchive.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar book build <партии> <книга> [--plies=N] | book probe <книга> [файл партии]
+        if (args.length > 0 && args[0].equals("book")) {
+            OpeningBookBuilder.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar positions add <индекс> <архив>... | positions find <индекс> [файл партии]
+        if (args.length > 0 && args[0].equals("positions")) {
+            PositionIndex.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar serve [--port=N] [--threads=N] [--queue=N] | client <партии> [файл] [--port=N]
+        if (args.length > 0 && args[0].equals("serve")) {
+            ValidationServer.serve(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("client")) {
+            ValidationServer.client(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar tablebase N [файл]
+        if (args.length > 0 && args[0].equals("tablebase")) {
+            TablebaseGenerator.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // java -jar Draughts.jar match <позиции> [--games=N] [--threads=N] [--engine1=настройки] [--engine2=настройки]
+        if (args.length > 0 && args[0].equals("match")) {
+            Match.run(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
+        // пакетный режим: java -jar Draughts.jar <каталог или файл с партиями> [файл результатов] [--threads=N]
+        // [--tablebase=файл] [--metrics[=секунды]] [--cache[=N]]
+        List<String> arguments = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String tablebase = null;
+        String metrics = null;
+        ReplayCache cache = null;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.startsWith("--tablebase=")) tablebase = arg.substring("--tablebase=".length());
+            else if (arg.startsWith("--metrics")) metrics = arg;
+            else if (arg.startsWith("--cache")) cache = ReplayCache.create(arg);
+            else arguments.add(arg);
+        }
+        if (!arguments.isEmpty()) {
+            Path output = Paths.get(arguments.size() > 1 ? arguments.get(1) : "output.txt");
+            ScheduledExecutorService timer = metrics == null ? null : Metrics.report(metrics);
+            if (tablebase == null) {
+                batch(Paths.get(arguments.get(0)), output, threads, null, cache);
+            } else {
+                try (Tablebase tables = Tablebase.open(Paths.get(tablebase))) {
+                    batch(Paths.get(arguments.get(0)), output, threads, tables, cache);
+                } catch (IOException e) {
+                    System.out.println("Ошибка " + e.getMessage());
                 }
             }
-            saveResult(battle);
+            if (timer != null) timer.shutdownNow();
+            if (metrics != null) System.err.println(Metrics.INSTANCE.dump());
+            if (cache != null) System.err.println(cache.stats());
+            return;
+        }
+
+        try {
+            List<String> list = readFile("input.txt");
+            saveResult(play(list));
 
         } catch (IOException | WhiteSquareException | CheckRuleException e) {
             saveResult(e.getMessage());
-            System.exit(0);
         }
     }
 
+    /**
+     * разыгрывает партию
+     *
+     * @param list строки партии: позиции белых, позиции черных, затем ходы
+     * @return игровое поле после всех ходов
+     * @throws CheckRuleException если ошибка
+     * @throws WhiteSquareException если белая клетка
+     */
+    static Battle play(List<? extends CharSequence> list) throws WhiteSquareException, CheckRuleException {
+        Battle battle = setup(list);
+
+        // первые две строки с фигурами пропускаем, ходы разбираются прямо из строки без split
+        for (CharSequence str : list.subList(2, list.size())) playLine(battle, str);
+        return battle;
+    }
+
+    /**
+     * расстановка партии из первых двух строк
+     *
+     * @param list строки партии
+     * @return игровое поле до ходов
+     * @throws CheckRuleException   если список пустой
+     * @throws WhiteSquareException если белая клетка
+     */
+    static Battle setup(List<? extends CharSequence> list) throws WhiteSquareException, CheckRuleException {
+        if (list.isEmpty()) throw new CheckRuleException("Пустой список!");
+        List<Position> whitePositions = getPositions(list.get(0).toString().trim(), DRAUGHT.WHITE);
+
+        List<Position> blackPositions = getPositions(list.get(1).toString().trim(), DRAUGHT.BLACK);
+        return new Battle(whitePositions, blackPositions);
+    }
+
+    /**
+     * строка ходов партии: ход белых, затем ход черных, если на строке ровно два хода через пробел
+     *
+     * @param battle игровое поле
+     * @param str    строка
+     * @throws CheckRuleException   если ошибка
+     * @throws WhiteSquareException если белая клетка
+     */
+    static void playLine(Battle battle, CharSequence str) throws WhiteSquareException, CheckRuleException {
+        playLine(battle, str, 2);
+    }
+
+    /**
+     * то же, но не больше plies ходов строки. ходом считается только то, что parse делает на поле (makesMove):
+     * пустой ход или ход без '-' и ':' не считается, так же как в архиве (GameArchiveWriter его не пишет)
+     *
+     * @param plies сколько ходов строки можно сделать
+     * @return сколько сделано
+     */
+    static int playLine(Battle battle, CharSequence str, int plies) throws WhiteSquareException, CheckRuleException {
+        if (plies <= 0) return 0;
+        int[] bounds = new int[4];
+        int moves = split(str, bounds);
+        int played = 0;
+        if (makesMove(str, bounds[0], bounds[1])) {
+            parse(battle, str, bounds[0], bounds[1], DRAUGHT.WHITE);
+            if (++played == plies) return played;
+        }
+        if (moves == 2 && makesMove(str, bounds[2], bounds[3])) {
+            parse(battle, str, bounds[2], bounds[3], DRAUGHT.BLACK);
+            played++;
+        }
+        return played;
+    }
+
+    /**
+     * делает ли parse ход на поле: в ходе есть '-' или хотя бы одно ':' не в конце
+     *
+     * @param str   строка
+     * @param start начало хода
+     * @param end   конец хода (не включая)
+     * @return false если parse такой ход пропускает
+     */
+    static boolean makesMove(CharSequence str, int start, int end) {
+        if (indexOf(str, start, end, '-') >= 0) return true;
+        while (end > start && str.charAt(end - 1) == ':') end--;
+        return indexOf(str, start, end, ':') >= 0;
+    }
+
+    /**
+     * ходы строки так, как их разыгрывает playLine: без пробелов по краям ход белых до первого пробела,
+     * ход черных - остаток, только если на строке ровно два хода через пробел
+     *
+     * @param str    строка
+     * @param bounds сюда пишутся начало и конец хода белых, затем черных
+     * @return 2, если есть ход черных, иначе 1 (ход белых может быть пустым)
+     */
+    static int split(CharSequence str, int[] bounds) {
+        int start = 0;
+        int end = str.length();
+        while (start < end && str.charAt(start) <= ' ') start++;
+        while (end > start && str.charAt(end - 1) <= ' ') end--;
+
+        int space = indexOf(str, start, end, ' ');
+        bounds[0] = start;
+        bounds[1] = space < 0 ? end : space;
+        if (space < 0 || indexOf(str, space + 1, end, ' ') >= 0) return 1;
+        bounds[2] = space + 1;
+        bounds[3] = end;
+        return 2;
+    }
+
+    /**
+     * чей ход после всех ходов партии
+     *
+     * @param list строки партии
+     * @return WHITE, если в последней строке с ходами есть ход черных (или ходов нет), иначе BLACK
+     */
+    static DRAUGHT sideToMove(List<? extends CharSequence> list) {
+        for (int i = list.size() - 1; i >= 2; i--) {
+            CharSequence str = list.get(i);
+            int start = 0;
+            int end = str.length();
+            while (start < end && str.charAt(start) <= ' ') start++;
+            while (end > start && str.charAt(end - 1) <= ' ') end--;
+            if (start == end) continue;
+            // как в play: черные ходят, только если на строке ровно два хода
+            int space = indexOf(str, start, end, ' ');
+            return space >= 0 && indexOf(str, space + 1, end, ' ') < 0 ? DRAUGHT.WHITE : DRAUGHT.BLACK;
+        }
+        return DRAUGHT.WHITE;
+    }
+
+    /**
+     * проверяет партию
+     *
+     * @param list строки партии
+     * @return игровое поле в виде строки или текст ошибки
+     */
+    static String validate(List<? extends CharSequence> list) {
+        return validate(list, null);
+    }
+
+    /**
+     * проверяет партию и, если фигур осталось мало, дописывает результат из таблиц эндшпиля
+     *
+     * @param list      строки партии
+     * @param tablebase таблицы эндшпиля или null
+     * @return игровое поле в виде строки или текст ошибки
+     */
+    static String validate(List<? extends CharSequence> list, Tablebase tablebase) {
+        return validate(list, tablebase, null);
+    }
+
+    /**
+     * то же, с розыгрышем от общего начала из кеша
+     *
+     * @param cache кеш начал партий или null
+     */
+    static String validate(List<? extends CharSequence> list, Tablebase tablebase, ReplayCache cache) {
+        long start = Metrics.start();
+        String result;
+        try {
+            Battle battle = cache == null ? play(list) : cache.play(list);
+            start = Metrics.validated(start);
+            result = tablebase == null ? battle.battleToString() : describe(battle, sideToMove(list), tablebase);
+        } catch (WhiteSquareException | CheckRuleException e) {
+            start = Metrics.failed(e, start);
+            result = e.getMessage();
+        } catch (RuntimeException e) {
+            // например, нет строки с черными или ход без второй клетки "a1-"
+            start = Metrics.failed(e, start);
+            result = "error " + e;
+        }
+        Metrics.serialized(start);
+        return result;
+    }
+
+    /**
+     * игровое поле в виде строки и, если позиция есть в таблицах эндшпиля, ее результат
+     *
+     * @param battle    игровое поле
+     * @param draught   чей ход
+     * @param tablebase таблицы эндшпиля или null
+     * @return результат для файла результатов
+     */
+    static String describe(Battle battle, DRAUGHT draught, Tablebase tablebase) {
+        if (tablebase == null) return battle.battleToString();
+        int value = tablebase.probe(battle, draught);
+        if (value == Tablebase.UNKNOWN) return battle.battleToString();
+        String winner = (value == Tablebase.WIN) == (draught == DRAUGHT.WHITE) ? "white" : "black";
+        String result = value == Tablebase.DRAW ? "draw" : winner + " wins";
+        return battle.battleToString() + "\r\ntablebase: " + result;
+    }
+
+    /**
+     * проверяет все партии за один запуск, результаты пишутся в порядке партий через GAME_DELIMITER
+     * <p>
+     * входной файл отображается в память (MappedGameReader), результаты копятся в буфере ChannelWriter
+     * и уходят в файл по мегабайту
+     *
+     * @param input   каталог (каждый файл - партия) или файл с партиями через GAME_DELIMITER
+     * @param output  файл результатов
+     * @param threads число потоков, 1 - проверка в текущем потоке
+     */
+    public static void batch(Path input, Path output, int threads) {
+        batch(input, output, threads, null);
+    }
+
+    /**
+     * то же, с результатами из таблиц эндшпиля для партий, где осталось мало фигур
+     *
+     * @param tablebase таблицы эндшпиля или null
+     */
+    static void batch(Path input, Path output, int threads, Tablebase tablebase) {
+        batch(input, output, threads, tablebase, null);
+    }
+
+    /**
+     * то же, партии продолжаются от общих начал из кеша
+     *
+     * @param cache кеш начал партий или null
+     */
+    static void batch(Path input, Path output, int threads, Tablebase tablebase, ReplayCache cache) {
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        // партии в работе в порядке чтения, каждая со своим Battle
+        Deque<Future<String>> results = new ArrayDeque<>();
+        try (MappedGameReader reader = new MappedGameReader(input);
+             ChannelWriter writer = new ChannelWriter(FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            List<CharSequence> game;
+            while ((game = reader.next()) != null) {
+                if (pool == null) {
+                    writeResult(writer, validate(game, tablebase, cache));
+                    continue;
+                }
+                List<CharSequence> task = game;
+                results.add(pool.submit(() -> validate(task, tablebase, cache)));
+                if (results.size() >= threads * GAMES_PER_THREAD) writeResult(writer, results.poll().get());
+            }
+            while (!results.isEmpty()) writeResult(writer, results.poll().get());
+        } catch (IOException | ExecutionException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (pool != null) pool.shutdownNow();
+        }
+    }
+
+    // результат партии и разделитель
+    static void writeResult(ChannelWriter writer, String result) throws IOException {
+        writer.append(result).append("\r\n").append(GAME_DELIMITER).append("\r\n");
+    }
+
     /**
      * парсит текую позицю
      *
@@ -55,27 +383,61 @@ public class Main {
      * @throws WhiteSquareException если белая клетка
      */
     public static void parse(Battle battle, String str, DRAUGHT draught) throws CheckRuleException, WhiteSquareException {
-        if (str.contains("-")) {
+        parse(battle, str, 0, str.length(), draught);
+    }
+
+    /**
+     * парсит ход из части строки str от start до end, не создавая строк и позиций
+     *
+     * @param battle  игровое поле
+     * @param str     строка с ходом: a1-b2 или a1:c3:e5
+     * @param start   начало хода
+     * @param end     конец хода (не включая)
+     * @param draught чей ход
+     * @throws CheckRuleException если ошибка
+     * @throws WhiteSquareException если белая клетка
+     */
+    static void parse(Battle battle, CharSequence str, int start, int end, DRAUGHT draught)
+            throws CheckRuleException, WhiteSquareException {
+        int dash = indexOf(str, start, end, '-');
+        if (dash >= 0) {
             // если должны делать взятие, а мы делаем обычный мув
             if (battle.checkTake(draught)) throw new CheckRuleException("invalid move");
-            Position moveWhite = checkPosition(str.split("-")[0], draught);
-            Position moveTo = checkPosition(str.split("-")[1], draught);
-            if (battle.check(moveWhite)) throw new CheckRuleException("error " + moveWhite);
-            battle.move(moveWhite, moveTo);
-            //battle.print();
-        } else if (str.contains(":")) {
-            String[] pos = str.split(":");
-            for (int i = 0; i <= pos.length - 2; i++) {
-                Position moveWhite = checkPosition(pos[i], draught);
-                Position moveTo = checkPosition(pos[i + 1], draught);
-                //System.out.println(moveWhite + ":" + moveTo);
-                if (battle.check(moveWhite)) throw new CheckRuleException("error, not found " + moveWhite);
-                battle.moveWithTake(moveWhite, moveTo);
-                // battle.print();
+            int toEnd = indexOf(str, dash + 1, end, '-');
+            if (toEnd < 0) toEnd = end;
+            int from = square(str, start, dash);
+            int to = square(str, dash + 1, toEnd);
+            if (battle.check(from, draught)) throw new CheckRuleException("error " + str.subSequence(start, dash));
+            battle.move(from, Character.isUpperCase(str.charAt(start)),
+                    to, Character.isUpperCase(str.charAt(dash + 1)), draught);
+            Metrics.move();
+        } else if (indexOf(str, start, end, ':') >= 0) {
+            // двоеточия в конце не считаются, как и пустые строки в конце split
+            while (end > start && str.charAt(end - 1) == ':') end--;
+            int from = start;
+            int fromEnd = indexOf(str, from, end, ':');
+            while (fromEnd >= 0) {
+                int toEnd = indexOf(str, fromEnd + 1, end, ':');
+                int moveWhite = square(str, from, fromEnd);
+                int moveTo = square(str, fromEnd + 1, toEnd < 0 ? end : toEnd);
+                if (battle.check(moveWhite, draught))
+                    throw new CheckRuleException("error, not found " + str.subSequence(from, fromEnd));
+                battle.moveWithTake(moveWhite, Character.isUpperCase(str.charAt(from)),
+                        moveTo, Character.isUpperCase(str.charAt(fromEnd + 1)), draught);
+                Metrics.capture();
+                from = fromEnd + 1;
+                fromEnd = toEnd;
             }
+            Metrics.move();
         }
     }
 
+    // индекс символа c в str от start до end или -1
+    static int indexOf(CharSequence str, int start, int end, char c) {
+        for (int i = start; i < end; i++)
+            if (str.charAt(i) == c) return i;
+        return -1;
+    }
 
     /**
      * возвращает список позиций шашек на доске
@@ -105,35 +467,32 @@ public class Main {
      * @throws WhiteSquareException - если описание не соотвествует стандарту
      */
     public static Position checkPosition(String pos, DRAUGHT draught) throws WhiteSquareException {
-        if (pos.length() != 2) throw new WhiteSquareException();
-        Character[] horizontals = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
-        Character[] verticals = {'1', '2', '3', '4', '5', '6', '7', '8'};
-        Character horizontal = pos.toLowerCase().charAt(0);
-        if (Arrays.stream(horizontals).noneMatch(horizontal::equals)) throw new WhiteSquareException();
-        int hInd = 0;
-        for (int i = 0; i < horizontals.length; i++)
-            if (horizontals[i].equals(horizontal)) {
-                hInd = i + 1;
-                break;
-            }
+        int square = square(pos, 0, pos.length());
+        return new Position(pos.charAt(0), BitBoard.rank(square), draught);
+    }
 
-        horizontal = pos.charAt(0);
-        Character vertical = pos.charAt(1);
+    /**
+     * номер черной клетки по ее названию из части строки
+     *
+     * @param str   строка
+     * @param start начало названия
+     * @param end   конец названия (не включая)
+     * @return клетка 0-31 (см. BitBoard)
+     * @throws WhiteSquareException - если описание не соотвествует стандарту или клетка белая
+     */
+    static int square(CharSequence str, int start, int end) throws WhiteSquareException {
+        if (end - start != 2) throw new WhiteSquareException();
+        char horizontal = str.charAt(start);
+        char vertical = str.charAt(start + 1);
+        int file = horizontal >= 'a' && horizontal <= 'h' ? horizontal - 'a'
+                : horizontal >= 'A' && horizontal <= 'H' ? horizontal - 'A' : -1;
         // если не из списка допустимых значений
-        if (Arrays.stream(verticals).noneMatch(vertical::equals)) throw new WhiteSquareException();
-        int vInd = 0;
-        for (int i = 0; i < verticals.length; i++)
-            if (verticals[i].equals(vertical)) {
-                vInd = i + 1;
-                break;
-            }
-
-        if (vInd % 2 == 0 && hInd % 2 == 0) return new Position(horizontal, vInd, draught);
-        if (vInd % 2 == 1 && hInd % 2 == 1) return new Position(horizontal, vInd, draught);
-        throw new WhiteSquareException();
+        if (file < 0 || vertical < '1' || vertical > '8') throw new WhiteSquareException();
+        int rank = vertical - '0';
+        if ((file + rank) % 2 == 0) throw new WhiteSquareException();
+        return BitBoard.square(file, rank);
     }
 
-
     /**
      * чтение файла
      *
@@ -142,7 +501,9 @@ public class Main {
      * @throws IOException throws server exception
      */
     public static List<String> readFile(String fileName) throws IOException {
-        return Files.lines(Paths.get(fileName)).collect(Collectors.toList());
+        try (Stream<String> lines = Files.lines(Paths.get(fileName))) {
+            return lines.collect(Collectors.toList());
+        }
     }
 
     /**
@@ -177,7 +538,7 @@ public class Main {
 
 
     // исключение, если поле белое
-    private static class WhiteSquareException extends Exception {
+    static class WhiteSquareException extends Exception {
         public WhiteSquareException() {
             super("white cell");
         }
@@ -188,7 +549,7 @@ public class Main {
     }
 
     // если несоблюдение правил
-    private static class CheckRuleException extends Exception {
+    static class CheckRuleException extends Exception {
         public CheckRuleException(String message) {
             super(message);
         }
@@ -198,7 +559,7 @@ public class Main {
      * позиция шашки на доске
      */
 
-    private static class Position implements Comparable<Position> {
+    static class Position implements Comparable<Position> {
         final int vertical;
         Character horizontal;
         DRAUGHT draught;
@@ -252,17 +613,9 @@ public class Main {
             return horizontal;
         }
 
-        // возврашает индекс в массиве
-        public int[] getIndex() {
-            Character[] horizontals = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
-            int hInd = 0;
-            for (int i = 0; i < horizontals.length; i++)
-                if (horizontals[i].equals(Character.toLowerCase(horizontal))) {
-                    hInd = i;
-                    break;
-                }
-            int vInd = 8 - vertical;
-            return new int[]{vInd, hInd};
+        // возвращает номер черной клетки 0-31 (см. BitBoard)
+        public int getSquare() {
+            return BitBoard.square(Character.toLowerCase(horizontal) - 'a', vertical);
         }
 
         @Override
@@ -307,64 +660,97 @@ public class Main {
     }
 
 
-    private enum DRAUGHT {
+    enum DRAUGHT {
         WHITE, BLACK, EMPTY
     }
 
     // батл
-    private static class Battle {
-        List<Position> white;
-        List<Position> black;
-        Position[][] field = new Position[8][8];
+    static class Battle {
+        // клетки с белыми и черными шашками и с дамками (бит s - клетка s, см. BitBoard)
+        int white;
+        int black;
+        int kings;
+        // пустые клетки, которые записываются заглавной буквой (с них сняли дамку)
+        int marks;
+        // хеш Zobrist расстановки шашек, меняется вместе с полем
+        long hash;
+        // checkTake по правилам MoveGenerator (бить обязательно в любую сторону, дамка - через пустые клетки),
+        // а не по правилам проверки партий; для матча, где ходы приходят от поиска
+        boolean strict;
+        // шашки, которые должны бить (по правилам checkTake), для каждой стороны
+        private int whiteTakers;
+        private int blackTakers;
+        // клетки, для шашек на которых takers устарели: диагонали клеток, изменившихся после пересчета
+        private int dirty;
+        // стек отмены ходов make: по UNDO_INTS числа на ход, создается при первом make и дальше не растет,
+        // пока глубина не больше MAX_UNDO
+        private int[] undo;
+        private int undoSize;
+
+        // на сколько ходов make стек отмены рассчитан сразу
+        static final int MAX_UNDO = Search.MAX_PLY;
+        // запись отмены: ход (с флагами MoveList и UNDO_*), взятые шашки, взятые дамки
+        private static final int UNDO_INTS = 3;
+        // ходили белые
+        private static final int UNDO_WHITE = 1 << 12;
+        // клетка куда была отмечена в marks
+        private static final int UNDO_MARK = 1 << 13;
 
         public Battle(List<Position> white, List<Position> black) {
+            // расставим шашки
+            for (Position w : white) put(w.getSquare(), DRAUGHT.WHITE, w.isDame);
+            for (Position b : black) put(b.getSquare(), DRAUGHT.BLACK, b.isDame);
+        }
+
+        /**
+         * поле из масок клеток
+         *
+         * @param white белые шашки
+         * @param black черные шашки
+         * @param kings дамки
+         * @param marks пустые клетки, которые записываются заглавной буквой
+         */
+        Battle(int white, int black, int kings, int marks) {
             this.white = white;
             this.black = black;
-            char[] a = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h'};
-            // изначально все поля пустые
-            for (int i = 0; i <= 7; i++) {
-                for (int j = 1; j <= 8; j++) {
-                    try {
-                        String str = String.format("%s%d", a[i], j);
-                        Position empty = checkPosition(str, DRAUGHT.EMPTY);
-                        int[] index = empty.getIndex();
-                        field[index[0]][index[1]] = empty;
-                    } catch (WhiteSquareException ignored) {
-
-                    }
-                }
-            }
-
-            // расставим шашки
-            for (Position w : white) {
-                int[] p = w.getIndex();
-                int c = p[0];
-                int r = p[1];
-                field[c][r] = w;
-            }
+            this.kings = kings;
+            this.marks = marks;
+            hash = Zobrist.hash(white, black, kings, true);
+            // шашки, которые должны бить, пересчитаются при первой проверке
+            dirty = -1;
+        }
 
-            for (Position b : black) {
-                int[] p = b.getIndex();
-                int c = p[0];
-                int r = p[1];
-                field[c][r] = b;
-            }
+        /**
+         * копия поля без стека отмены
+         *
+         * @param battle поле
+         */
+        Battle(Battle battle) {
+            white = battle.white;
+            black = battle.black;
+            kings = battle.kings;
+            marks = battle.marks;
+            hash = battle.hash;
+            strict = battle.strict;
+            whiteTakers = battle.whiteTakers;
+            blackTakers = battle.blackTakers;
+            dirty = battle.dirty;
         }
 
         // вывод доски на экран в читаемом виде
         public void print() {
             System.out.println();
-            for (int i = 0; i < 8; i++) {
-                System.out.print((8 - i) + "|");
-                for (int j = 0; j < 8; j++) {
-                    Position p = field[i][j];
-                    if (p == null) {
+            for (int rank = 8; rank >= 1; rank--) {
+                System.out.print(rank + "|");
+                for (int file = 0; file < 8; file++) {
+                    if ((file + rank) % 2 == 0) {
                         System.out.print(" |");
                         continue;
                     }
-                    if (p.getDraught() == DRAUGHT.WHITE)
+                    DRAUGHT draught = getDraught(BitBoard.square(file, rank));
+                    if (draught == DRAUGHT.WHITE)
                         System.out.print("W|");
-                    else if (p.getDraught() == DRAUGHT.BLACK)
+                    else if (draught == DRAUGHT.BLACK)
                         System.out.print("B|");
                     else System.out.print(" |");
                 }
@@ -377,132 +763,155 @@ public class Main {
             System.out.println();
         }
 
+        // цвет шашки на клетке
+        DRAUGHT getDraught(int square) {
+            int bit = 1 << square;
+            if ((white & bit) != 0) return DRAUGHT.WHITE;
+            if ((black & bit) != 0) return DRAUGHT.BLACK;
+            return DRAUGHT.EMPTY;
+        }
+
+        // если клетка пустая
+        boolean isEmpty(int square) {
+            return ((white | black) & (1 << square)) == 0;
+        }
+
+        // записывается ли клетка заглавной буквой
+        boolean isUpper(int square) {
+            return ((kings | marks) & (1 << square)) != 0;
+        }
+
         /**
-         * возвращает true если шашка есть наигровом поле
+         * ставит шашку на клетку
          *
-         * @param draught шашка
-         * @return true или false
+         * @param square  клетка
+         * @param draught цвет шашки
+         * @param dame    true если дамка
          */
-        public boolean check(Position draught) {
-            int cc = draught.getIndex()[0];
-            int rc = draught.getIndex()[1];
-            Position position = field[cc][rc];
-            return position == null || !position.equals(draught) || !position.isSame(draught);
+        private void put(int square, DRAUGHT draught, boolean dame) {
+            int bit = 1 << square;
+            hash ^= Zobrist.piece(white, black, kings, square);
+            white &= ~bit;
+            black &= ~bit;
+            kings &= ~bit;
+            marks &= ~bit;
+            if (draught == DRAUGHT.WHITE) white |= bit;
+            if (draught == DRAUGHT.BLACK) black |= bit;
+            if (dame) kings |= bit;
+            hash ^= Zobrist.piece(white, black, kings, square);
+            dirty |= BitBoard.diagonals(square);
+        }
 
+        /**
+         * возвращает true если шашки нет на игровом поле
+         *
+         * @param square  клетка шашки
+         * @param draught цвет шашки
+         * @return true или false
+         */
+        public boolean check(int square, DRAUGHT draught) {
+            return getDraught(square) != draught;
         }
 
         /**
          * ход со взятием
          *
-         * @param draught позиция шашки, которой делают ход
-         * @param to      позиция поля на которое ходит шашка
+         * @param from     клетка шашки, которой делают ход
+         * @param dame     ходит ли шашка как дамка (записана заглавной буквой)
+         * @param target   клетка на которую ходит шашка
+         * @param toUpper  записана ли клетка target заглавной буквой
+         * @param color    цвет шашки
          * @throws CheckRuleException если нарушено правило
          */
-        public void moveWithTake(Position draught, Position to) throws CheckRuleException {
-            DRAUGHT from = draught.getDraught();
-            int ccTo = to.getIndex()[0];
-            int rcTo = to.getIndex()[1];
-            Position position = field[ccTo][rcTo];
-            // если позиция ошибочная
-            if (position == null) throw new CheckRuleException("error");
-
-            int cc = draught.getIndex()[0];
-            int rc = draught.getIndex()[1];
-            position = field[cc][rc];
-
-            // если позиция ошибочная
-            if (position == null) throw new CheckRuleException("error");
+        public void moveWithTake(int from, boolean dame, int target, boolean toUpper, DRAUGHT color)
+                throws CheckRuleException {
+            int direction = BitBoard.direction(from, target);
 
-            // получим возможную диагональ хода
-            List<Position> diagonal = getDiagonal(draught, to);
-
-            // если диагональ меньше 2 - то и ходить то не куда
-            if (diagonal.size() < 2) throw new CheckRuleException("error");
+            // получим длину возможной диагонали хода, если она меньше 2 - то и ходить то не куда
+            int length = direction < 0 ? 0 : BitBoard.length(from, direction);
+            if (length < 2) throw new CheckRuleException("error");
 
             // есть to не принадлежит диагонали - то значит ход не верный
-            if (contains(diagonal, to)) throw new CheckRuleException("error");
-
-            // обрежем диагональ до to
-            List<Position> newList = diagonalTo(diagonal, to);
+            if (!BitBoard.onDiagonal(from, target)) throw new CheckRuleException("error");
 
-            // если диагональ меньше 2 - то и ходить то не куда
-            if (newList.size() < 2) throw new CheckRuleException("error");
+            // обрежем диагональ до to (если to - соседняя клетка, то диагональ остается целиком)
+            int distance = Math.abs(BitBoard.rank(target) - BitBoard.rank(from));
+            int size = distance > 1 ? distance : length;
 
-            if (!newList.get(newList.size()-1).isEmpty()) throw new CheckRuleException("busy cell");
+            int[] ray = BitBoard.ray(from, direction);
+            if (!isEmpty(ray[size - 1])) throw new CheckRuleException("busy cell");
 
             // если обычна пешка
-            if (!draught.isDame || newList.size() == 2) {
+            if (!dame || size == 2) {
+                int first = ray[0];
+                int second = ray[1];
 
                 // если следущая тоже такого же цвета - то через неё нельзя ходить
-                if (!newList.get(0).isEmpty() && newList.get(0).isSame(draught)) throw new CheckRuleException("error");
+                if (getDraught(first) == color) throw new CheckRuleException("error");
 
                 // через клетку тоже нельзя
-                if (newList.get(0).isEmpty()) {
-                    throw new CheckRuleException("error");
-                }
+                if (isEmpty(first)) throw new CheckRuleException("error");
 
                 // если через одну клетку занята - то тоже нельзя
-                if (!newList.get(1).isEmpty()) throw new CheckRuleException("error");
-
-                // отметим, что поле откуда ушла шашка - пустое
-                Position first = newList.get(0);
+                if (!isEmpty(second)) throw new CheckRuleException("error");
 
                 //  уберем шашку
-                remove(draught);
-                remove(first);
-                to.setDraught(draught.getDraught());
+                remove(from, dame);
+                remove(first, isUpper(first));
 
                 // переставим пешку
-                field[ccTo][rcTo] = new Position(to.getHorizontal(), to.getVertical(), from);
+                put(target, color, toUpper);
 
                 // если стала дамкой
-                checkDame(field[ccTo][rcTo]);
+                checkDame(target);
             } else {
-                Position prev = null;
-
-                for (int i = 0; i <= newList.size() - 2; i++) {
-                    Position current = newList.get(i);
-                    Position next = newList.get(i + 1);
-                    if (current.isEmpty()) {
+                // было ли поле перед текущим пустым (до начала хода), -1 если его нет
+                int prev = -1;
+                boolean prevEmpty = false;
+
+                for (int i = 0; i <= size - 2; i++) {
+                    int current = ray[i];
+                    int next = ray[i + 1];
+                    if (isEmpty(current)) {
                         prev = current;
+                        prevEmpty = true;
 
                         // если клетка пуста и конец хода
-                        if (current.equals(to)) {
-                            field[current.getIndex()[0]][current.getIndex()[1]] = new Position(current.getHorizontal(), current.getVertical(), draught.getDraught());
-                            remove(draught);
-                            //System.out.println("current to "+to);
+                        if (current == target) {
+                            put(current, color, isUpper(current));
+                            remove(from, dame);
                             // если стала дамкой
-                            checkDame(field[ccTo][rcTo]);
+                            checkDame(target);
                             return;
                         }
                     }
 
                     // если клетка пустая, а следущая тоже пустая и конец хода
-                    if (current.isEmpty() && next.isEmpty() && next.equals(to)) {
-                        field[next.getIndex()[0]][next.getIndex()[1]] = new Position(next.getHorizontal(), next.getVertical(), draught.getDraught());
-                        remove(draught);
+                    if (isEmpty(current) && isEmpty(next) && next == target) {
+                        put(next, color, isUpper(next));
+                        remove(from, dame);
 
                         // если стала дамкой
-                        checkDame(field[ccTo][rcTo]);
+                        checkDame(target);
                         return;
                     }
 
                     // если клетка не пустая
-                    if (!current.isEmpty()
-                            && !current.isSame(draught) && next.isEmpty()) {
+                    if (!isEmpty(current) && getDraught(current) != color && isEmpty(next)) {
 
                         // если предыдушая клетка имее шашку - то ход не возможен
-                        if (prev != null && !prev.isEmpty()) throw new CheckRuleException("busy cel");
+                        if (prev >= 0 && !prevEmpty) throw new CheckRuleException("busy cel");
                         prev = current;
-                        remove(current);
-                        if (next.equals(to)) {
+                        prevEmpty = false;
+                        remove(current, isUpper(current));
+                        if (next == target) {
 
                             // переставим пешку
-                            field[to.getIndex()[0]][to.getIndex()[1]] = new Position(to.getHorizontal(), to.getVertical(), draught.getDraught());
+                            put(target, color, toUpper);
 
                             // если стала дамкой
-                            remove(draught);
-                            checkDame(field[ccTo][rcTo]);
+                            remove(from, dame);
+                            checkDame(target);
                             return;
                         }
                     }
@@ -512,227 +921,229 @@ public class Main {
 
         }
 
+        /**
+         * должна ли сторона бить
+         *
+         * @param draught цвет
+         * @return true если у какой-то шашки есть взятие
+         */
         public boolean checkTake(final DRAUGHT draught) {
-            Stream<Position> pos = Arrays.stream(field).flatMap(Arrays::stream);
-            List<Position> list = pos.filter(p -> p != null && p.getDraught().equals(draught)).collect(Collectors.toList());
-            for (Position position : list) {
-                if (checkTake(position)) return true;
+            if (strict) {
+                int own = draught == DRAUGHT.WHITE ? white : draught == DRAUGHT.BLACK ? black : 0;
+                return MoveGenerator.hasCapture(own, (white | black) & ~own, kings);
             }
-            return false;
+            if (dirty != 0) refreshTakers();
+            return (draught == DRAUGHT.WHITE ? whiteTakers : draught == DRAUGHT.BLACK ? blackTakers : 0) != 0;
         }
 
-        // проверка боя по текущей позии
-        public boolean checkTake(Position position) {
-            int cc = position.getIndex()[0];
-            int rc = position.getIndex()[1];
-            int cl = cc - 1;
-            int rl = rc + 1;
-            int clNext = cl - 1;
-            int rlNext = rl + 1;
-
-            if (checkTake(position, cl, rl, clNext, rlNext)) return true;
-
-            cl = cc + 1;
-            rl = rc + 1;
-            clNext = cl + 1;
-            rlNext = rl + 1;
-
-            if (checkTake(position, cl, rl, clNext, rlNext)) return true;
-
-
-            cl = cc - 1;
-            rl = rc - 1;
-            clNext = cl - 1;
-            rlNext = rl - 1;
-
-            if (checkTake(position, cl, rl, clNext, rlNext)) return true;
+        // пересчитывает takers только для шашек на диагоналях изменившихся клеток: от других клеток они не зависят
+        private void refreshTakers() {
+            whiteTakers &= ~dirty;
+            blackTakers &= ~dirty;
+            for (int pieces = dirty & (white | black); pieces != 0; pieces &= pieces - 1) {
+                int square = Integer.numberOfTrailingZeros(pieces);
+                if (!canTake(square)) continue;
+                if ((white & (1 << square)) != 0) whiteTakers |= 1 << square;
+                else blackTakers |= 1 << square;
+            }
+            dirty = 0;
+        }
 
-            return checkTake(position, cl, rl, clNext, rlNext);
+        // есть ли взятие у шашки на клетке square
+        private boolean canTake(int square) {
+            int bit = 1 << square;
+            int own = (white & bit) != 0 ? white : black;
+            int enemy = (white | black) & ~own;
+            if ((kings & bit) == 0) {
+                // простая шашка: соседняя клетка чужая, следующая за ней пустая
+                int empty = ~(white | black);
+                return jumps(bit, BitBoard.UP_RIGHT, enemy, empty) != 0
+                        || jumps(bit, BitBoard.DOWN_RIGHT, enemy, empty) != 0
+                        || jumps(bit, BitBoard.UP_LEFT, enemy, empty) != 0;
+            }
+            return checkTake(square, BitBoard.UP_RIGHT, enemy)
+                    || checkTake(square, BitBoard.DOWN_RIGHT, enemy)
+                    || checkTake(square, BitBoard.UP_LEFT, enemy);
+        }
 
+        // клетки, на которые шашки men попадают, перепрыгнув через чужую шашку в направлении direction
+        private static int jumps(int men, int direction, int enemy, int empty) {
+            return BitBoard.shift(BitBoard.shift(men, direction) & enemy, direction) & empty;
         }
 
         /**
-         * проверка позици position и клеток по координатам c,r и cN, rN (следующая по диагонали и снова следующая)
+         * проверка боя дамки по диагонали
          *
-         * @param position позиция
-         * @param c        координаты
+         * @param position  клетка дамки
+         * @param direction направление
+         * @param enemy     клетки с чужими шашками
          * @return true есть ходы в которые нужно быть чужуюклетку
          */
-        private boolean checkTake(Position position, int c, int r, int cN, int rN) {
-            try {
-
-                // получим левую и левую выше(ниже)
-                Position left = field[c][r];
-                Position nextLeft = field[cN][rN];
-                List<Position> diag = getDiagonal(left, nextLeft);
-                if (!position.isDame || (diag.size() == 2)) {
-
-                    // если нужен бой - то дальше можно не проверять
-                    if (!left.isEmpty() && !left.isSame(position) && nextLeft.isEmpty()) {
-                        return true;
-                    }
-                } else {
-                    Position prev = null;
-                    for (int i = 0; i < diag.size() - 2; i++) {
-                        Position current = diag.get(i);
-                        Position next = diag.get(i + 1);
-                        if (prev == null) {
-                            if (!current.isEmpty() && !current.isSame(position) && next.isEmpty()) return true;
-                        } else if (prev.isEmpty() && !current.isEmpty() && !current.isSame(position) && next.isEmpty())
-                            return true;
-                        prev = current;
-                    }
-                }
-            } catch (Exception ignored) {
-
+        private boolean checkTake(int position, int direction, int enemy) {
+            int[] ray = BitBoard.ray(position, direction);
+            if (ray.length < 3) return false;
+            // если нужен бой - то дальше можно не проверять
+            if (ray.length == 3) return (enemy & (1 << ray[0])) != 0 && isEmpty(ray[1]);
+
+            // клетку рядом с дамкой и последнюю пару клеток диагонали не смотрим
+            for (int i = 1; i <= ray.length - 3; i++) {
+                if ((i == 1 || isEmpty(ray[i - 1])) && (enemy & (1 << ray[i])) != 0 && isEmpty(ray[i + 1])) return true;
             }
             return false;
         }
 
         /**
-         * удаляет шашку с поля, заменяя пустой клеткой
+         * удаляет шашку с поля, оставляя пустую клетку
          *
-         * @param current позици шашки
+         * @param current клетка шашки
+         * @param upper   записывать ли клетку заглавной буквой
          */
-        private void remove(Position current) {
-            int ccTo = current.getIndex()[0];
-            int rcTo = current.getIndex()[1];
-
-            field[ccTo][rcTo] = new Position(current.getHorizontal(), current.getVertical(), DRAUGHT.EMPTY);
+        private void remove(int current, boolean upper) {
+            put(current, DRAUGHT.EMPTY, false);
+            if (upper) marks |= 1 << current;
         }
 
         /**
          * проверка стала ли шашка дамкой
          *
          */
-        private void checkDame(Position draught) {
-            int ccTo = draught.getIndex()[0];
-            int rcTo = draught.getIndex()[1];
-            if (draught.getDraught() == DRAUGHT.WHITE && ccTo == 0) field[ccTo][rcTo].setDame();
-            if (draught.getDraught() == DRAUGHT.BLACK && ccTo == 7) field[ccTo][rcTo].setDame();
-        }
-
-        // ход шашки без взятия
-        public void move(Position draught, Position to) throws CheckRuleException, WhiteSquareException {
-            int ccTo = to.getIndex()[0];
-            int rcTo = to.getIndex()[1];
-            Position position = field[ccTo][rcTo];
-            if (position == null) throw new WhiteSquareException(to.toString());
-
-            int cc = draught.getIndex()[0];
-            int rc = draught.getIndex()[1];
-            position = field[cc][rc];
-            if (position == null) throw new WhiteSquareException(draught.toString());
-            List<Position> diagonal = getDiagonal(draught, to);
-            // если диагональ пустая - то ходить некуда
-            if (diagonal.isEmpty()) throw new CheckRuleException("error нет хода");
-            if (contains(diagonal, to)) throw new CheckRuleException("error ошибочный ход");
-            diagonal = diagonalTo(diagonal, to);
-            if (diagonal.isEmpty()) throw new CheckRuleException("error нет хода");
-            // если ходит не дамка то она может ходить только на следующую клетку
-            if (!draught.isDame || (diagonal.size() == 2)) {
-                Position first = diagonal.get(0);
-                //if (!first.equals(to)) throw new CheckRuleException("error 1");
-                if (first.equals(to) && !first.isEmpty()) throw new CheckRuleException("busy cell ");
-            } else {
-                boolean flag = false;
+        private void checkDame(int square) {
+            int bit = 1 << square;
+            if ((kings & bit) != 0) return;
+            if ((white & bit & BitBoard.RANK_8) != 0 || (black & bit & BitBoard.RANK_1) != 0) {
+                kings |= bit;
+                hash ^= Zobrist.key((white & bit) != 0, false, square) ^ Zobrist.key((white & bit) != 0, true, square);
+                dirty |= BitBoard.diagonals(square);
+            }
+        }
 
-                for (Position pos : diagonal) {
-                    if (pos.equals(to) && !pos.isEmpty()) throw new CheckRuleException("busy cell ");
-                    if (pos.equals(to)) flag = true;
-                }
+        /**
+         * ход шашки без взятия
+         *
+         * @param from     клетка шашки, которой делают ход
+         * @param dame     ходит ли шашка как дамка (записана заглавной буквой)
+         * @param target   клетка на которую ходит шашка
+         * @param toUpper  записана ли клетка target заглавной буквой
+         * @param color    цвет шашки
+         * @throws CheckRuleException если нарушено правило
+         */
+        public void move(int from, boolean dame, int target, boolean toUpper, DRAUGHT color) throws CheckRuleException {
+            int direction = BitBoard.direction(from, target);
 
-                // если неверный ход
-                if (!flag) {
-                    throw new CheckRuleException("error");
-                }
+            // если диагональ пустая - то ходить некуда
+            int length = direction < 0 ? 0 : BitBoard.length(from, direction);
+            if (length == 0) throw new CheckRuleException("error нет хода");
+            if (!BitBoard.onDiagonal(from, target)) throw new CheckRuleException("error ошибочный ход");
 
-            }
+            // обрежем диагональ до to (если to - соседняя клетка, то диагональ остается целиком)
+            int distance = Math.abs(BitBoard.rank(target) - BitBoard.rank(from));
+            int size = distance > 1 ? distance : length;
+
+            // если ходит не дамка то проверяется только следующая клетка
+            if (!dame || size == 2) {
+                if (distance == 1 && !isEmpty(target)) throw new CheckRuleException("busy cell ");
+            } else if (!isEmpty(target)) throw new CheckRuleException("busy cell ");
 
             // отмечаем, что поле предыдущее поле шашки пустое
-            remove(draught);
-            field[ccTo][rcTo] = new Position(to.getHorizontal(), to.getVertical(), draught.getDraught());
-            checkDame(field[ccTo][rcTo]);
-        }
-
-        // проверяем есть ли шашка position в списке list
-        boolean contains(List<Position> list, final Position position) {
-            return (list.stream().noneMatch(p -> p.toString().equalsIgnoreCase(position.toString())));
-        }
-
-        // получаем все шашки на диагонали мува
-        List<Position> getDiagonal(Position draught, Position to) {
-            List<Position> positions = new ArrayList<>();
-            int cc = draught.getIndex()[0];
-            int rc = draught.getIndex()[1];
-            int ccTo = to.getIndex()[0];
-            int rcTo = to.getIndex()[1];
-            if (cc > ccTo && rc > rcTo) {
-                while (cc > 0 && rc > 0) {
-                    cc--;
-                    rc--;
-                    if (field[cc][rc] != null) {
-                        positions.add(field[cc][rc]);
-                    }
-                }
-                return positions;
-            }
-            if (cc > ccTo && rc < rcTo) {
-                while (cc > 0 && rc < 7) {
-                    cc--;
-                    rc++;
-                    if (field[cc][rc] != null) {
-                        positions.add(field[cc][rc]);
-                    }
-                }
-                return positions;
-            }
-            if (cc < ccTo && rc > rcTo) {
-                while (cc < 7 && rc > 0) {
-                    cc++;
-                    rc--;
-                    if (field[cc][rc] != null) {
-                        positions.add(field[cc][rc]);
-                    }
-                }
-                return positions;
-            }
-            if (cc < ccTo && rc < rcTo) {
-                while (cc < 7 && rc < 7) {
-                    cc++;
-                    rc++;
-                    if (field[cc][rc] != null) {
-                        positions.add(field[cc][rc]);
-                    }
+            remove(from, dame);
+            put(target, color, toUpper);
+            checkDame(target);
+        }
 
-                }
-                return positions;
-            }
-            return positions;
+        /**
+         * делает ход из списка MoveGenerator на этом поле, без проверок и без создания объектов.
+         * ход запоминается в стеке отмены, unmake возвращает поле (и хеш) как было
+         *
+         * @param list ходы, заполненные MoveGenerator для этого поля
+         * @param i    номер хода
+         */
+        void make(MoveList list, int i) {
+            make(list.moves[i], list.captures[i], list.white);
+        }
 
+        /**
+         * делает ход
+         *
+         * @param move     ход (MoveList)
+         * @param captured взятые шашки
+         * @param white    ходят белые
+         */
+        void make(int move, int captured, boolean white) {
+            int from = 1 << MoveList.from(move);
+            int to = 1 << MoveList.to(move);
+            if (undo == null) undo = new int[MAX_UNDO * UNDO_INTS];
+            if (undoSize == undo.length) undo = Arrays.copyOf(undo, undo.length * 2);
+            undo[undoSize++] = move | (white ? UNDO_WHITE : 0) | ((marks & to) != 0 ? UNDO_MARK : 0);
+            undo[undoSize++] = captured;
+            undo[undoSize++] = kings & captured;
+            // хеш поля без стороны, которая ходит
+            hash ^= Zobrist.move(white, move, captured, kings) ^ Zobrist.SIDE;
+            boolean king = (move & (MoveList.KING | MoveList.PROMOTION)) != 0;
+            // дамка может вернуться на ту же клетку, поэтому сначала снимаем, потом ставим
+            if (white) {
+                this.white = (this.white & ~from) | to;
+                this.black &= ~captured;
+            } else {
+                this.black = (this.black & ~from) | to;
+                this.white &= ~captured;
+            }
+            kings &= ~(captured | from);
+            if (king) kings |= to;
+            marks &= ~to;
+            dirty |= BitBoard.diagonals(MoveList.from(move)) | BitBoard.diagonals(MoveList.to(move));
+            for (; captured != 0; captured &= captured - 1)
+                dirty |= BitBoard.diagonals(Integer.numberOfTrailingZeros(captured));
         }
 
-        // обрезаем диагональ до позиции to
-        public List<Position> diagonalTo(List<Position> list, Position to) {
-            List<Position> newList = new ArrayList<>();
-            if (list.isEmpty()) return newList;
-            newList.add(list.get(0));
-            for (int i = 1; i < list.size(); i++) {
-                newList.add(list.get(i));
-                if (list.get(i).equals(to)) break;
+        /**
+         * отменяет последний ход make
+         */
+        void unmake() {
+            int capturedKings = undo[--undoSize];
+            int captured = undo[--undoSize];
+            int entry = undo[--undoSize];
+            boolean white = (entry & UNDO_WHITE) != 0;
+            int move = entry & (UNDO_WHITE - 1);
+            int from = 1 << MoveList.from(move);
+            int to = 1 << MoveList.to(move);
+            if (white) {
+                this.white = (this.white & ~to) | from;
+                this.black |= captured;
+            } else {
+                this.black = (this.black & ~to) | from;
+                this.white |= captured;
             }
-            return newList;
+            kings = (kings & ~to) | capturedKings | ((move & MoveList.KING) != 0 ? from : 0);
+            if ((entry & UNDO_MARK) != 0) marks |= to;
+            hash ^= Zobrist.move(white, move, captured, kings) ^ Zobrist.SIDE;
+            dirty |= BitBoard.diagonals(MoveList.from(move)) | BitBoard.diagonals(MoveList.to(move));
+            for (; captured != 0; captured &= captured - 1)
+                dirty |= BitBoard.diagonals(Integer.numberOfTrailingZeros(captured));
         }
 
         // преобразование игрового поля в строку
         public String battleToString() {
-            Stream<Position> pos = Arrays.stream(field).flatMap(Arrays::stream);
-            String white = pos.filter(p -> p != null && p.getDraught() == DRAUGHT.WHITE).sorted().map(Position::toString).collect(Collectors.joining(" "));
-            pos = Arrays.stream(field).flatMap(Arrays::stream);
-            String black = pos.filter(p -> p != null && p.getDraught() == DRAUGHT.BLACK).sorted().map(Position::toString).collect(Collectors.joining(" "));
-            return white + "\r\n" + black;
+            return toString(white) + "\r\n" + toString(black);
+        }
+
+        // клетки маски через пробел: сначала дамки, затем шашки, по вертикали и горизонтали
+        private String toString(int mask) {
+            StringBuilder builder = new StringBuilder();
+            append(builder, mask & kings, true);
+            append(builder, mask & ~kings, false);
+            return builder.toString();
+        }
+
+        private void append(StringBuilder builder, int mask, boolean upper) {
+            for (int file = 0; file < 8; file++) {
+                for (int rank = 1 + file % 2; rank <= 8; rank += 2) {
+                    int square = BitBoard.square(file, rank);
+                    if ((mask & (1 << square)) == 0) continue;
+                    if (builder.length() > 0) builder.append(' ');
+                    builder.append(BitBoard.name(square, upper));
+                }
+            }
         }
 
     }
 }
-
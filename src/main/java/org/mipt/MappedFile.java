@@ -0,0 +1,84 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * файл только для чтения, отображенный в память окнами: одно отображение меньше 2 ГБ, поэтому файл
+ * делится на окна по window байт, смещения - long. соседние окна перекрываются на Long.BYTES байт, так что
+ * число (int, long) всегда целиком в окне, где оно начинается
+ */
+final class MappedFile {
+    static final int WINDOW = 1 << 30;
+
+    private final MappedByteBuffer[] windows;
+    private final int shift;
+    private final long size;
+
+    /**
+     * @param channel файл
+     * @throws IOException если ошибка отображения
+     */
+    MappedFile(FileChannel channel) throws IOException {
+        this(channel, WINDOW);
+    }
+
+    /**
+     * @param channel файл
+     * @param window  размер окна, степень двойки
+     * @throws IOException если ошибка отображения
+     */
+    MappedFile(FileChannel channel, int window) throws IOException {
+        size = channel.size();
+        shift = Integer.numberOfTrailingZeros(window);
+        windows = new MappedByteBuffer[(int) ((size + window - 1) >>> shift)];
+        for (int i = 0; i < windows.length; i++) {
+            long offset = (long) i << shift;
+            windows[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min((long) window + Long.BYTES, size - offset));
+            windows[i].order(ByteOrder.BIG_ENDIAN);
+        }
+    }
+
+    /**
+     * @return размер файла
+     */
+    long size() {
+        return size;
+    }
+
+    byte get(long position) {
+        return window(position).get(offset(position));
+    }
+
+    int getInt(long position) {
+        return window(position).getInt(offset(position));
+    }
+
+    long getLong(long position) {
+        return window(position).getLong(offset(position));
+    }
+
+    /**
+     * копирует bytes.length байт с position, запись может переходить из окна в окно
+     */
+    void get(long position, byte[] bytes) {
+        for (int done = 0; done < bytes.length; ) {
+            MappedByteBuffer window = window(position + done);
+            int offset = offset(position + done);
+            int n = Math.min(bytes.length - done, (1 << shift) - offset);
+            window.duplicate().position(offset).get(bytes, done, n);
+            done += n;
+        }
+    }
+
+    private MappedByteBuffer window(long position) {
+        return windows[(int) (position >>> shift)];
+    }
+
+    private int offset(long position) {
+        return (int) (position & ((1L << shift) - 1));
+    }
+}
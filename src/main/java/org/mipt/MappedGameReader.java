@@ -0,0 +1,196 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * читает партии по одной: из каталога (каждый файл - партия)
+ * или из файла, где партии разделены строкой Main.GAME_DELIMITER
+ * <p>
+ * файлы отображаются в память: строки партии - срезы ByteBuffer (Line), символы читаются прямо из буфера
+ * без декодирования и без String. партия, в которой есть не ASCII байты, декодируется из UTF-8 как обычно.
+ * большой файл отображается окнами по WINDOW байт, окно сдвигается к началу партии
+ */
+class MappedGameReader implements Closeable {
+    static final int WINDOW = 1 << 30;
+
+    // файлы каталога, null если читаем один файл
+    private final Iterator<Path> files;
+    private FileChannel channel;
+    private long size;
+    // окно файла и его смещение в файле
+    private ByteBuffer buffer;
+    private long base;
+    // начало следующей партии в окне
+    private int position;
+
+    /**
+     * @param input каталог или файл с партиями
+     * @throws IOException если не удалось открыть
+     */
+    MappedGameReader(Path input) throws IOException {
+        if (Files.isDirectory(input)) {
+            try (Stream<Path> list = Files.list(input)) {
+                files = list.filter(Files::isRegularFile).sorted().collect(Collectors.toList()).iterator();
+            }
+        } else {
+            files = null;
+            open(input);
+        }
+    }
+
+    private void open(Path file) throws IOException {
+        if (channel != null) channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        size = channel.size();
+        map(0);
+    }
+
+    // окно файла с offset
+    private void map(long offset) throws IOException {
+        base = offset;
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, size - offset));
+        position = 0;
+    }
+
+    /**
+     * следующая партия
+     *
+     * @return строки партии или null, если партии закончились
+     * @throws IOException если ошибка чтения
+     */
+    List<CharSequence> next() throws IOException {
+        long start = Metrics.start();
+        List<CharSequence> game = files != null ? file() : read(true);
+        if (game != null) Metrics.parsed(start);
+        return game;
+    }
+
+    // файл каталога - одна партия целиком, без разделителей
+    private List<CharSequence> file() throws IOException {
+        if (!files.hasNext()) return null;
+        open(files.next());
+        return read(false);
+    }
+
+    /**
+     * строки от position до разделителя (если split) или до конца файла
+     *
+     * @return строки или null, если до конца файла строк нет
+     */
+    private List<CharSequence> read(boolean split) throws IOException {
+        while (true) {
+            List<CharSequence> game = new ArrayList<>();
+            boolean ascii = true;
+            int start = position;
+            int index = position;
+            int limit = buffer.limit();
+            boolean last = base + limit >= size;
+            while (index < limit) {
+                int end = index;
+                while (end < limit && buffer.get(end) != '\n' && buffer.get(end) != '\r') {
+                    if (buffer.get(end) < 0) ascii = false;
+                    end++;
+                }
+                // перевод строки \r\n мог разойтись по двум окнам
+                if (!last && (end == limit || (buffer.get(end) == '\r' && end + 1 == limit))) break;
+                int next = end == limit ? end : end + 1;
+                if (end < limit && buffer.get(end) == '\r' && next < limit && buffer.get(next) == '\n') next++;
+                Line line = new Line(buffer, index, end);
+                index = next;
+                if (split && isDelimiter(line)) {
+                    position = index;
+                    return ascii ? game : decode(game);
+                }
+                game.add(line);
+            }
+            // без разделителя партия кончается только с файлом
+            if (last) {
+                position = index;
+                if (split && game.isEmpty()) return null;
+                return ascii ? game : decode(game);
+            }
+            // партия не поместилась в окно - окно с начала партии
+            if (start == 0) throw new IOException("партия больше " + WINDOW + " байт");
+            map(base + start);
+        }
+    }
+
+    // строка Main.GAME_DELIMITER с пробелами по краям
+    private static boolean isDelimiter(Line line) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && line.charAt(start) <= ' ') start++;
+        while (end > start && line.charAt(end - 1) <= ' ') end--;
+        if (end - start != Main.GAME_DELIMITER.length()) return false;
+        for (int i = 0; i < end - start; i++)
+            if (line.charAt(start + i) != Main.GAME_DELIMITER.charAt(i)) return false;
+        return true;
+    }
+
+    // строки из UTF-8
+    private static List<CharSequence> decode(List<CharSequence> lines) {
+        List<CharSequence> decoded = new ArrayList<>(lines.size());
+        for (CharSequence line : lines) decoded.add(((Line) line).decode());
+        return decoded;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+    }
+
+    /**
+     * строка файла: срез буфера, байт - символ (только для ASCII)
+     */
+    static final class Line implements CharSequence {
+        private final ByteBuffer buffer;
+        private final int start;
+        private final int end;
+
+        Line(ByteBuffer buffer, int start, int end) {
+            this.buffer = buffer;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buffer.get(start + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return new Line(buffer, start + from, start + to);
+        }
+
+        String decode() {
+            byte[] bytes = new byte[end - start];
+            for (int i = 0; i < bytes.length; i++) bytes[i] = buffer.get(start + i);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder(length());
+            for (int i = start; i < end; i++) builder.append((char) (buffer.get(i) & 0xFF));
+            return builder.toString();
+        }
+    }
+}
@@ -0,0 +1,321 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * матч двух настроек движка: партии из начальных позиций, каждая позиция дважды - первый движок за белых
+ * и за черных. партии играются параллельно, у каждого потока свои поиски и таблицы транспозиций.
+ * ход, найденный поиском, делается через Main.parse на Battle, как в проверке партий, но Battle.strict:
+ * обязательное взятие проверяется по правилам MoveGenerator, иначе Battle отклонял бы часть ходов поиска.
+ * отклоненный ход - ошибка генератора или проверки, матч на этом прерывается, а не пропускает партию.
+ * <p>
+ * партия заканчивается, когда у стороны нет ходов (проигрыш), ничьей при третьем повторении позиции или
+ * после maxPlies полуходов, с таблицами эндшпиля - их результатом, как только позиция в них есть.
+ * после каждой партии проверяется последовательный критерий (SPRT): гипотезы H0 - первый движок сильнее
+ * второго на elo0, H1 - на elo1; матч останавливается, как только отношение правдоподобия вышло за
+ * границы, заданные ошибками alpha и beta
+ * <p>
+ * java -jar Draughts.jar match &lt;позиции&gt; [--games=N] [--threads=N] [--engine1=настройки] [--engine2=настройки]
+ * [--elo0=0] [--elo1=5] [--alpha=0.05] [--beta=0.05] [--plies=200] [--tablebase=файл]
+ * <br>
+ * позиции - партии через GAME_DELIMITER, как в пакетном режиме, партия начинается после всех ходов.
+ * настройки - через запятую: time=мс на ход, depth=N, hash=МБ, eval=tables|search
+ */
+final class Match {
+    static final int DEFAULT_PLIES = 200;
+    static final long DEFAULT_MILLIS = 50;
+    // строка о ходе матча каждые столько партий
+    private static final int REPORT_EVERY = 100;
+    // повторение позиции, после которого ничья
+    private static final int REPETITIONS = 3;
+
+    // результаты партий с точки зрения первого движка
+    private static final int WIN = 2;
+    private static final int DRAW = 1;
+    private static final int LOSS = 0;
+
+    /**
+     * настройки движка
+     */
+    static final class Engine {
+        int depth = Search.MAX_PLY - 1;
+        long millis;
+        int hash = 16;
+        // оценка Evaluator вместо Search.evaluate
+        boolean tables;
+
+        /**
+         * @param spec настройки через запятую: time=мс, depth=N, hash=МБ, eval=tables|search
+         * @return настройки, по умолчанию 50 мс на ход
+         */
+        static Engine parse(String spec) {
+            Engine engine = new Engine();
+            for (String option : spec.split(",")) {
+                if (option.isEmpty()) continue;
+                int equals = option.indexOf('=');
+                String key = equals < 0 ? option : option.substring(0, equals);
+                String value = equals < 0 ? "" : option.substring(equals + 1);
+                switch (key) {
+                    case "time":
+                        engine.millis = Long.parseLong(value);
+                        break;
+                    case "depth":
+                        engine.depth = Integer.parseInt(value);
+                        break;
+                    case "hash":
+                        engine.hash = Integer.parseInt(value);
+                        break;
+                    case "eval":
+                        if (!value.equals("tables") && !value.equals("search"))
+                            throw new IllegalArgumentException("eval=" + value);
+                        engine.tables = value.equals("tables");
+                        break;
+                    default:
+                        throw new IllegalArgumentException(option);
+                }
+            }
+            // без ограничений - DEFAULT_MILLIS на ход
+            if (engine.millis == 0 && engine.depth == Search.MAX_PLY - 1) engine.millis = DEFAULT_MILLIS;
+            return engine;
+        }
+
+        @Override
+        public String toString() {
+            return (millis > 0 ? millis + " мс" : "глубина " + depth) + ", " + hash + " МБ, оценка "
+                    + (tables ? "tables" : "search");
+        }
+    }
+
+    // начальная позиция: поле и чей ход
+    private static final class Opening {
+        final Main.Battle battle;
+        final Main.DRAUGHT draught;
+
+        Opening(Main.Battle battle, Main.DRAUGHT draught) {
+            this.battle = battle;
+            this.draught = draught;
+        }
+    }
+
+    private final List<Opening> openings;
+    private final Engine first;
+    private final Engine second;
+    private final int maxPlies;
+    // таблицы эндшпиля или null
+    private final Tablebase tablebase;
+    private final Sprt sprt;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicBoolean stop = new AtomicBoolean();
+    // итог матча: партии первого движка и все ходы; после решения SPRT не меняется
+    private int wins;
+    private int draws;
+    private int losses;
+    private long plies;
+    // решение SPRT в момент остановки (см. Sprt.decision) и партии, которые доиграли уже после него
+    private int decision;
+    private int late;
+    private long start;
+
+    private Match(List<Opening> openings, Engine first, Engine second, int maxPlies, Tablebase tablebase, Sprt sprt) {
+        this.openings = openings;
+        this.first = first;
+        this.second = second;
+        this.maxPlies = maxPlies;
+        this.tablebase = tablebase;
+        this.sprt = sprt;
+    }
+
+    static void run(String[] args) {
+        int games = 0;
+        int threads = Runtime.getRuntime().availableProcessors();
+        // по умолчанию - оценка Evaluator против оценки поиска
+        String first = "eval=tables";
+        String second = "eval=search";
+        double elo0 = 0;
+        double elo1 = 5;
+        double alpha = 0.05;
+        double beta = 0.05;
+        int maxPlies = DEFAULT_PLIES;
+        String tablebase = null;
+        String file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--games=")) games = Integer.parseInt(arg.substring("--games=".length()));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.startsWith("--engine1=")) first = arg.substring("--engine1=".length());
+            else if (arg.startsWith("--engine2=")) second = arg.substring("--engine2=".length());
+            else if (arg.startsWith("--elo0=")) elo0 = Double.parseDouble(arg.substring("--elo0=".length()));
+            else if (arg.startsWith("--elo1=")) elo1 = Double.parseDouble(arg.substring("--elo1=".length()));
+            else if (arg.startsWith("--alpha=")) alpha = Double.parseDouble(arg.substring("--alpha=".length()));
+            else if (arg.startsWith("--beta=")) beta = Double.parseDouble(arg.substring("--beta=".length()));
+            else if (arg.startsWith("--plies=")) maxPlies = Integer.parseInt(arg.substring("--plies=".length()));
+            else if (arg.startsWith("--tablebase=")) tablebase = arg.substring("--tablebase=".length());
+            else file = arg;
+        }
+        if (file == null) {
+            System.out.println("match <позиции> [--games=N] [--threads=N] [--engine1=настройки] [--engine2=настройки]"
+                    + " [--elo0=0] [--elo1=5] [--alpha=0.05] [--beta=0.05] [--plies=200] [--tablebase=файл]");
+            return;
+        }
+        try (Tablebase tables = tablebase == null ? null : Tablebase.open(Paths.get(tablebase))) {
+            List<Opening> openings = openings(Paths.get(file));
+            if (openings.isEmpty()) {
+                System.out.println("Ошибка нет начальных позиций");
+                return;
+            }
+            Match match = new Match(openings, Engine.parse(first), Engine.parse(second), maxPlies, tables,
+                    new Sprt(elo0, elo1, alpha, beta));
+            System.out.printf("движок 1: %s%nдвижок 2: %s%nпозиций %d, потоков %d, %s%n", match.first,
+                    match.second, openings.size(), threads, match.sprt);
+            match.play(games > 0 ? games : openings.size() * 2, threads);
+            System.out.println(match.result());
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        } catch (ExecutionException e) {
+            System.out.println("Ошибка " + e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // позиции после всех ходов партий файла, партии с ошибкой пропускаются
+    private static List<Opening> openings(Path file) throws IOException {
+        List<Opening> openings = new ArrayList<>();
+        int skipped = 0;
+        try (MappedGameReader reader = new MappedGameReader(file)) {
+            List<CharSequence> game;
+            while ((game = reader.next()) != null) {
+                try {
+                    openings.add(new Opening(Main.play(game), Main.sideToMove(game)));
+                } catch (Main.WhiteSquareException | Main.CheckRuleException | RuntimeException e) {
+                    skipped++;
+                }
+            }
+        }
+        if (skipped > 0) System.out.println("пропущено позиций с ошибкой: " + skipped);
+        return openings;
+    }
+
+    /**
+     * играет партии, пока их не games или пока SPRT не принял гипотезу
+     *
+     * @param games   сколько партий сыграть не больше
+     * @param threads число потоков
+     */
+    void play(int games, int threads) throws InterruptedException, ExecutionException {
+        start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < Math.max(threads, 1); i++) workers.add(pool.submit(() -> work(games)));
+            for (Future<?> worker : workers) worker.get();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // поток матча: берет следующую партию, пока они есть
+    private void work(int games) {
+        Search one = new Search(new TranspositionTable(first.hash), new AtomicBoolean(), null, first.tables);
+        Search two = new Search(new TranspositionTable(second.hash), new AtomicBoolean(), null, second.tables);
+        MoveList list = new MoveList();
+        long[] history = new long[maxPlies + 1];
+        int game;
+        while (!stop.get() && (game = next.getAndIncrement()) < games) {
+            Opening opening = openings.get(game / 2 % openings.size());
+            // в четной партии первый движок играет стороной, которая ходит в позиции
+            boolean firstMoves = game % 2 == 0;
+            Main.Battle battle = new Main.Battle(opening.battle);
+            battle.strict = true;
+            Main.DRAUGHT draught = opening.draught;
+            int result = DRAW;
+            int ply = 0;
+            for (; ply < maxPlies; ply++) {
+                boolean firstToMove = firstMoves == (ply % 2 == 0);
+                history[ply] = Search.hash(battle, draught == Main.DRAUGHT.WHITE);
+                if (repeated(history, ply)) break;
+                if (tablebase != null) {
+                    int value = tablebase.probe(battle, draught);
+                    if (value != Tablebase.UNKNOWN) {
+                        if (value != Tablebase.DRAW) result = (value == Tablebase.WIN) == firstToMove ? WIN : LOSS;
+                        break;
+                    }
+                }
+                if (MoveGenerator.generate(battle, draught, list) == 0) {
+                    result = firstToMove ? LOSS : WIN;
+                    break;
+                }
+                Engine engine = firstToMove ? first : second;
+                Search.Result found = (firstToMove ? one : two).search(battle, draught, engine.depth, engine.millis,
+                        false);
+                // время кончилось раньше первой итерации - первый ход из списка
+                String move = found.move != null ? found.move : list.toString(0);
+                try {
+                    Main.parse(battle, move, draught);
+                } catch (Main.CheckRuleException | Main.WhiteSquareException | RuntimeException e) {
+                    stop.set(true);
+                    throw new IllegalStateException("ход " + move + " движка " + (firstToMove ? 1 : 2)
+                            + " отклонен: " + e.getMessage() + ", позиция " + battle.battleToString(), e);
+                }
+                draught = draught == Main.DRAUGHT.WHITE ? Main.DRAUGHT.BLACK : Main.DRAUGHT.WHITE;
+            }
+            finish(result, ply);
+        }
+    }
+
+    // позиция history[ply] была уже REPETITIONS - 1 раз с той же стороной хода
+    private static boolean repeated(long[] history, int ply) {
+        int count = 1;
+        for (int i = ply - 2; i >= 0; i -= 2)
+            if (history[i] == history[ply] && ++count == REPETITIONS) return true;
+        return false;
+    }
+
+    // партии, начатые до остановки, доигрываются, но в счет после решения не идут: иначе итог разошелся бы
+    // с тем, на котором SPRT остановился
+    private synchronized void finish(int result, int ply) {
+        if (decision != 0) {
+            late++;
+            return;
+        }
+        if (result == WIN) wins++;
+        else if (result == DRAW) draws++;
+        else losses++;
+        plies += ply;
+        decision = sprt.decision(wins, draws, losses);
+        if (decision != 0) stop.set(true);
+        if (played() % REPORT_EVERY == 0) System.out.println(status());
+    }
+
+    private int played() {
+        return wins + draws + losses;
+    }
+
+    // счет, Elo, LLR и скорость
+    private synchronized String status() {
+        double seconds = (System.nanoTime() - start) / 1e9;
+        return String.format("партий %d: +%d =%d -%d, Elo %s, LLR %.2f [%.2f, %.2f], %.1f партий/с, %.0f ходов/с",
+                played(), wins, draws, losses, Sprt.elo(wins, draws, losses),
+                sprt.llr(wins, draws, losses), sprt.lower(), sprt.upper(), played() / seconds, plies / seconds);
+    }
+
+    /**
+     * @return итог матча: счет, Elo, решение SPRT
+     */
+    synchronized String result() {
+        return status() + String.format("%nходов за партию %.1f%n", (double) plies / Math.max(played(), 1))
+                + (late > 0 ? String.format("доиграно после решения SPRT (не в счете): %d%n", late) : "")
+                + (decision > 0 ? "SPRT: H1 - движок 1 сильнее" : decision < 0 ? "SPRT: H0 - движок 1 не сильнее"
+                : "SPRT: нет решения");
+    }
+}
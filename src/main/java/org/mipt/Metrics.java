@@ -0,0 +1,297 @@
+package org.mipt;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * метрики проверки партий: партии, ходы, взятия, ошибки по виду и время фаз
+ * <p>
+ * счетчики - LongAdder (у каждого потока своя ячейка, нет общей точки записи), время фаз - гистограммы
+ * по степеням двойки наносекунд. включены по умолчанию, выключаются -Ddraughts.metrics=false или
+ * через JMX (Enabled); выключенные стоят одну проверку volatile поля.
+ * фазы: parse - чтение и разбиение партии из файла (на сервере - куска, прочитанного из сокета),
+ * validate - Main.play или GameArchive.replay, serialize - результат в строку (battleToString или текст ошибки)
+ */
+final class Metrics implements MetricsMXBean {
+    static final Metrics INSTANCE = new Metrics();
+    static final String NAME = "org.mipt:type=Metrics";
+    // видов ошибок не больше, остальные - в "другие"
+    private static final int MAX_ERROR_TYPES = 64;
+
+    // читается на каждом ходе, пишется редко
+    private static volatile boolean enabled = !"false".equals(System.getProperty("draughts.metrics"));
+
+    final LongAdder games = new LongAdder();
+    final LongAdder moves = new LongAdder();
+    final LongAdder captures = new LongAdder();
+    final LongAdder errors = new LongAdder();
+    private final Map<String, LongAdder> errorTypes = new ConcurrentHashMap<>();
+    final Histogram parse = new Histogram();
+    final Histogram validate = new Histogram();
+    final Histogram serialize = new Histogram();
+
+    private Metrics() {
+    }
+
+    // время начала фазы или 0, если метрики выключены
+    static long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    // полуход партии, взятие по нескольким шашкам - один полуход
+    static void move() {
+        if (enabled) INSTANCE.moves.increment();
+    }
+
+    // взятая шашка
+    static void capture() {
+        if (enabled) INSTANCE.captures.increment();
+    }
+
+    // конец фазы parse
+    static void parsed(long start) {
+        INSTANCE.parse.since(start);
+    }
+
+    /**
+     * конец фазы validate без ошибки
+     *
+     * @param start начало фазы
+     * @return начало фазы serialize
+     */
+    static long validated(long start) {
+        INSTANCE.validate.since(start);
+        return start();
+    }
+
+    /**
+     * конец фазы validate с ошибкой: вид ошибки - сообщение без названий клеток,
+     * для RuntimeException - класс исключения
+     *
+     * @param e     исключение из Main.play
+     * @param start начало фазы
+     * @return начало фазы serialize
+     */
+    static long failed(Exception e, long start) {
+        INSTANCE.validate.since(start);
+        if (enabled) error(e);
+        return start();
+    }
+
+    // конец фазы serialize, партия проверена
+    static void serialized(long start) {
+        INSTANCE.serialize.since(start);
+        if (enabled) INSTANCE.games.increment();
+    }
+
+    private static void error(Exception e) {
+        INSTANCE.errors.increment();
+        String type = e instanceof RuntimeException ? e.getClass().getName() : type(e.getMessage());
+        Map<String, LongAdder> types = INSTANCE.errorTypes;
+        LongAdder counter = types.get(type);
+        if (counter == null) {
+            if (types.size() >= MAX_ERROR_TYPES) type = "другие";
+            counter = types.computeIfAbsent(type, key -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    // "error c3" -> "error ??"
+    static String type(String message) {
+        if (message == null) return "null";
+        StringBuilder builder = new StringBuilder(message.length());
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            char next = i + 1 < message.length() ? message.charAt(i + 1) : 0;
+            boolean start = i == 0 || !Character.isLetterOrDigit(message.charAt(i - 1));
+            boolean end = i + 2 >= message.length() || !Character.isLetterOrDigit(message.charAt(i + 2));
+            if (start && end && (c | 0x20) >= 'a' && (c | 0x20) <= 'h' && next >= '1' && next <= '8') {
+                builder.append("??");
+                i++;
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * регистрирует MBean, если еще не зарегистрирован
+     */
+    static void register() {
+        try {
+            ObjectName name = new ObjectName(NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, name);
+        } catch (JMException e) {
+            System.out.println("Ошибка JMX " + e.getMessage());
+        }
+    }
+
+    /**
+     * аргумент --metrics[=секунды]: регистрирует MBean и, если задан период, печатает dump()
+     * в System.err раз в столько секунд
+     *
+     * @param arg аргумент командной строки
+     * @return планировщик вывода или null, если период не задан
+     */
+    static ScheduledExecutorService report(String arg) {
+        register();
+        if (!arg.startsWith("--metrics=")) return null;
+        int seconds = Integer.parseInt(arg.substring("--metrics=".length()));
+        ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(() -> System.err.println(INSTANCE.dump()), seconds, seconds, TimeUnit.SECONDS);
+        return timer;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    @Override
+    public long getGames() {
+        return games.sum();
+    }
+
+    @Override
+    public long getMoves() {
+        return moves.sum();
+    }
+
+    @Override
+    public long getCaptures() {
+        return captures.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByType() {
+        Map<String, Long> map = new TreeMap<>();
+        errorTypes.forEach((type, counter) -> map.put(type, counter.sum()));
+        return map;
+    }
+
+    @Override
+    public Map<String, Long> getLatency() {
+        Map<String, Long> map = new TreeMap<>();
+        parse.put(map, "parse");
+        validate.put(map, "validate");
+        serialize.put(map, "serialize");
+        return map;
+    }
+
+    @Override
+    public String dump() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format("партий %d, ходов %d, взятий %d, ошибок %d%n",
+                games.sum(), moves.sum(), captures.sum(), errors.sum()));
+        getErrorsByType().forEach((type, count) -> builder.append("  ").append(type).append(": ").append(count)
+                .append(System.lineSeparator()));
+        parse.append(builder, "parse");
+        validate.append(builder, "validate");
+        serialize.append(builder, "serialize");
+        return builder.toString().trim();
+    }
+
+    @Override
+    public void reset() {
+        games.reset();
+        moves.reset();
+        captures.reset();
+        errors.reset();
+        errorTypes.clear();
+        parse.reset();
+        validate.reset();
+        serialize.reset();
+    }
+
+    /**
+     * гистограмма времени: корзина b - от 2^(b-1) до 2^b наносекунд
+     */
+    static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder sum = new LongAdder();
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        /**
+         * добавляет время от start до сейчас
+         *
+         * @param start Metrics.start() или 0, если метрики были выключены
+         */
+        void since(long start) {
+            if (start == 0 || !enabled) return;
+            long nanos = Math.max(System.nanoTime() - start, 0);
+            buckets[64 - Long.numberOfLeadingZeros(nanos)].increment();
+            sum.add(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) count += bucket.sum();
+            return count;
+        }
+
+        // верхняя граница корзины, в которой квантиль q
+        long percentile(double q) {
+            long[] counts = new long[buckets.length];
+            long count = 0;
+            for (int i = 0; i < counts.length; i++) count += counts[i] = buckets[i].sum();
+            if (count == 0) return 0;
+            long rank = (long) Math.ceil(q * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= Math.max(rank, 1)) return i == 0 ? 0 : 1L << Math.min(i, 62);
+            }
+            return Long.MAX_VALUE;
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) bucket.reset();
+            sum.reset();
+        }
+
+        private void put(Map<String, Long> map, String phase) {
+            long count = count();
+            map.put(phase + ".count", count);
+            map.put(phase + ".mean", count == 0 ? 0 : sum.sum() / count);
+            map.put(phase + ".p50", percentile(0.5));
+            map.put(phase + ".p90", percentile(0.9));
+            map.put(phase + ".p99", percentile(0.99));
+            map.put(phase + ".max", percentile(1));
+        }
+
+        private void append(StringBuilder builder, String phase) {
+            long count = count();
+            builder.append(String.format("%-9s %d раз, среднее %.1f мкс, p50 <= %.1f, p90 <= %.1f, p99 <= %.1f,"
+                            + " max <= %.1f мкс%n", phase, count, count == 0 ? 0.0 : sum.sum() / 1000.0 / count,
+                    percentile(0.5) / 1000.0, percentile(0.9) / 1000.0, percentile(0.99) / 1000.0,
+                    percentile(1) / 1000.0));
+        }
+    }
+}
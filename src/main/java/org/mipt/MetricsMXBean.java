@@ -0,0 +1,31 @@
+package org.mipt;
+
+import java.util.Map;
+
+/**
+ * счетчики Metrics в JMX (org.mipt:type=Metrics)
+ */
+public interface MetricsMXBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getGames();
+
+    long getMoves();
+
+    long getCaptures();
+
+    long getErrors();
+
+    // ошибки по виду сообщения
+    Map<String, Long> getErrorsByType();
+
+    // по фазам parse, validate, serialize: count, mean, p50, p90, p99 и max в наносекундах
+    Map<String, Long> getLatency();
+
+    // текст, как в периодическом выводе
+    String dump();
+
+    void reset();
+}
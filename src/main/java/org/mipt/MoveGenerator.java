@@ -0,0 +1,177 @@
+package org.mipt;
+
+/**
+ * генератор всех ходов стороны по правилам русских шашек:
+ * бить обязательно, простая шашка бьет назад, дамка дальнобойная,
+ * взятые шашки снимаются после хода (через них нельзя прыгать второй раз),
+ * шашка, ставшая дамкой во время взятия, продолжает бить как дамка
+ */
+final class MoveGenerator {
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * все ходы стороны draught на поле battle
+     *
+     * @param battle  игровое поле
+     * @param draught чей ход
+     * @param list    буфер ходов, очищается
+     * @return количество ходов
+     */
+    static int generate(Main.Battle battle, Main.DRAUGHT draught, MoveList list) {
+        boolean white = draught == Main.DRAUGHT.WHITE;
+        int own = white ? battle.white : battle.black;
+        int enemy = white ? battle.black : battle.white;
+        return generate(own, enemy, battle.kings, white, list);
+    }
+
+    /**
+     * все ходы стороны по маскам
+     *
+     * @param own   свои шашки
+     * @param enemy чужие шашки
+     * @param kings дамки
+     * @param white ходят белые
+     * @param list  буфер ходов, очищается
+     * @return количество ходов
+     */
+    static int generate(int own, int enemy, int kings, boolean white, MoveList list) {
+        list.clear(white);
+        for (int pieces = own; pieces != 0; pieces &= pieces - 1) {
+            int from = Integer.numberOfTrailingZeros(pieces);
+            // клетка, с которой ушла шашка, во время взятия пустая
+            int empty = ~(own | enemy) | (1 << from);
+            if ((kings & (1 << from)) != 0) kingCaptures(list, from, from, enemy, empty, 0, 0L, 0, MoveList.KING);
+            else manCaptures(list, from, from, enemy, empty, 0, 0L, 0);
+        }
+        if (list.size == 0) quietMoves(list, own, enemy, kings, white);
+        return list.size;
+    }
+
+    /**
+     * есть ли у стороны взятие
+     */
+    static boolean hasCapture(int own, int enemy, int kings) {
+        int empty = ~(own | enemy);
+        int men = own & ~kings;
+        for (int direction = 0; direction < 4; direction++) {
+            if ((BitBoard.shift(BitBoard.shift(men, direction) & enemy, direction) & empty) != 0) return true;
+        }
+        for (int dames = own & kings; dames != 0; dames &= dames - 1) {
+            int from = Integer.numberOfTrailingZeros(dames);
+            if (kingCanCapture(from, enemy, empty | (1 << from), -1)) return true;
+        }
+        return false;
+    }
+
+    // ходы без взятия
+    private static void quietMoves(MoveList list, int own, int enemy, int kings, boolean white) {
+        int empty = ~(own | enemy);
+        int men = own & ~kings;
+        int last = white ? BitBoard.RANK_8 : BitBoard.RANK_1;
+        int first = white ? BitBoard.UP_LEFT : BitBoard.DOWN_LEFT;
+        for (int direction = first; direction <= first + 1; direction++) {
+            int back = 3 - direction;
+            for (int targets = BitBoard.shift(men, direction) & empty; targets != 0; targets &= targets - 1) {
+                int to = Integer.numberOfTrailingZeros(targets);
+                int flags = (last & (1 << to)) != 0 ? MoveList.PROMOTION : 0;
+                list.add(MoveList.move(BitBoard.step(to, back), to, flags), 0, to);
+            }
+        }
+        for (int dames = own & kings; dames != 0; dames &= dames - 1) {
+            int from = Integer.numberOfTrailingZeros(dames);
+            for (int direction = 0; direction < 4; direction++) {
+                for (int to : BitBoard.ray(from, direction)) {
+                    if ((empty & (1 << to)) == 0) break;
+                    list.add(MoveList.move(from, to, MoveList.KING), 0, to);
+                }
+            }
+        }
+    }
+
+    /**
+     * взятия простой шашкой с клетки square
+     *
+     * @param origin   клетка, откуда начат ход
+     * @param captured уже взятые шашки
+     * @param path     клетки взятия
+     * @param depth    сколько шашек уже взято
+     */
+    private static void manCaptures(MoveList list, int origin, int square, int enemy, int empty,
+                                    int captured, long path, int depth) {
+        int last = list.white ? BitBoard.RANK_8 : BitBoard.RANK_1;
+        boolean found = false;
+        for (int direction = 0; direction < 4; direction++) {
+            int over = BitBoard.step(square, direction);
+            if (over < 0 || (enemy & ~captured & (1 << over)) == 0) continue;
+            int to = BitBoard.step(over, direction);
+            if (to < 0 || (empty & (1 << to)) == 0) continue;
+            found = true;
+            long next = path | (long) to << (5 * depth);
+            if ((last & (1 << to)) != 0) {
+                // стала дамкой - дальше бьет как дамка
+                kingCaptures(list, origin, to, enemy, empty, captured | (1 << over), next, depth + 1,
+                        MoveList.PROMOTION);
+            } else {
+                manCaptures(list, origin, to, enemy, empty, captured | (1 << over), next, depth + 1);
+            }
+        }
+        if (!found && depth > 0) list.add(MoveList.move(origin, square, 0), captured, path);
+    }
+
+    /**
+     * взятия дамкой с клетки square
+     *
+     * @param flags KING или PROMOTION для шашки, ставшей дамкой во время взятия
+     */
+    private static void kingCaptures(MoveList list, int origin, int square, int enemy, int empty,
+                                     int captured, long path, int depth, int flags) {
+        boolean found = false;
+        for (int direction = 0; direction < 4; direction++) {
+            int[] ray = BitBoard.ray(square, direction);
+            // первая занятая клетка луча, за ней должна быть пустая
+            int over = 0;
+            while (over < ray.length && (empty & (1 << ray[over])) != 0) over++;
+            if (over + 1 >= ray.length || (enemy & ~captured & (1 << ray[over])) == 0
+                    || (empty & (1 << ray[over + 1])) == 0) continue;
+            found = true;
+            int taken = captured | (1 << ray[over]);
+
+            // если с какой-то клетки за взятой шашкой можно бить дальше, встать можно только на такие клетки
+            boolean more = false;
+            for (int i = over + 1; i < ray.length && (empty & (1 << ray[i])) != 0; i++) {
+                int to = ray[i];
+                if (kingCanCapture(to, enemy & ~taken, empty, direction)) {
+                    more = true;
+                    kingCaptures(list, origin, to, enemy, empty, taken, path | (long) to << (5 * depth),
+                            depth + 1, flags);
+                }
+            }
+            if (more) continue;
+            for (int i = over + 1; i < ray.length && (empty & (1 << ray[i])) != 0; i++) {
+                list.add(MoveList.move(origin, ray[i], flags), taken, path | (long) ray[i] << (5 * depth));
+            }
+        }
+        if (!found && depth > 0) list.add(MoveList.move(origin, square, flags), captured, path);
+    }
+
+    /**
+     * может ли дамка на клетке square бить дальше
+     *
+     * @param enemy     чужие шашки, которые еще можно взять
+     * @param empty     пустые клетки
+     * @param direction направление, в котором пришла дамка (назад бить нельзя)
+     */
+    private static boolean kingCanCapture(int square, int enemy, int empty, int direction) {
+        for (int d = 0; d < 4; d++) {
+            if (d == 3 - direction) continue;
+            int[] ray = BitBoard.ray(square, d);
+            int over = 0;
+            while (over < ray.length && (empty & (1 << ray[over])) != 0) over++;
+            if (over + 1 < ray.length && (enemy & (1 << ray[over])) != 0 && (empty & (1 << ray[over + 1])) != 0)
+                return true;
+        }
+        return false;
+    }
+}
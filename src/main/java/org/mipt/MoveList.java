@@ -0,0 +1,95 @@
+package org.mipt;
+
+import java.util.Arrays;
+
+/**
+ * буфер ходов, заполняется MoveGenerator и используется повторно
+ * <p>
+ * ход - число: клетка откуда | клетка куда << 5 | флаги KING и PROMOTION.
+ * для каждого хода хранятся маска взятых шашек и клетки, на которые шашка встает по ходу взятия
+ * (по 5 бит на клетку, в порядке хода)
+ */
+final class MoveList {
+    // ходит дамка
+    static final int KING = 1 << 10;
+    // простая шашка становится дамкой
+    static final int PROMOTION = 1 << 11;
+
+    int size;
+    // ходят белые
+    boolean white;
+    int[] moves;
+    int[] captures;
+    long[] paths;
+
+    MoveList() {
+        this(64);
+    }
+
+    MoveList(int capacity) {
+        moves = new int[capacity];
+        captures = new int[capacity];
+        paths = new long[capacity];
+    }
+
+    static int from(int move) {
+        return move & 31;
+    }
+
+    static int to(int move) {
+        return (move >>> 5) & 31;
+    }
+
+    static int move(int from, int to, int flags) {
+        return from | to << 5 | flags;
+    }
+
+    void clear(boolean white) {
+        this.white = white;
+        size = 0;
+    }
+
+    /**
+     * добавляет ход; взятия с одинаковым результатом, но разным путем - разные ходы
+     *
+     * @param move     ход
+     * @param captured взятые шашки
+     * @param path     клетки взятия
+     */
+    void add(int move, int captured, long path) {
+        if (size == moves.length) {
+            moves = Arrays.copyOf(moves, size * 2);
+            captures = Arrays.copyOf(captures, size * 2);
+            paths = Arrays.copyOf(paths, size * 2);
+        }
+        moves[size] = move;
+        captures[size] = captured;
+        paths[size] = path;
+        size++;
+    }
+
+    /**
+     * ход в нотации, которую принимает Main.parse: c3-d4 или c3:e5:g3,
+     * клетки, где шашка дамка, записываются заглавной буквой
+     *
+     * @param i номер хода
+     * @return ход
+     */
+    String toString(int i) {
+        int move = moves[i];
+        boolean king = (move & KING) != 0;
+        StringBuilder builder = new StringBuilder(BitBoard.name(from(move), king));
+        if (captures[i] == 0) {
+            builder.append('-').append(BitBoard.name(to(move), king || (move & PROMOTION) != 0));
+            return builder.toString();
+        }
+        int last = white ? BitBoard.RANK_8 : BitBoard.RANK_1;
+        long path = paths[i];
+        for (int n = Integer.bitCount(captures[i]); n > 0; n--, path >>>= 5) {
+            int square = (int) (path & 31);
+            king |= (last & (1 << square)) != 0;
+            builder.append(':').append(BitBoard.name(square, king));
+        }
+        return builder.toString();
+    }
+}
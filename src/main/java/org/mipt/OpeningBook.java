@@ -0,0 +1,154 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * дебютная книга: для позиции (хеш Zobrist вместе со стороной, которая ходит, см. Search.hash) - ходы,
+ * сыгранные в ней в партиях корпуса, сколько раз и с каким результатом
+ * <p>
+ * файл: заголовок (MAGIC, сколько полуходов партии брали в книгу, число записей), затем записи,
+ * отсортированные по хешу, а с одним хешем - по числу партий от большего к меньшему.
+ * запись: хеш (long), ход (клетка откуда | клетка куда << 5, как MoveList), партии, выигрыши и проигрыши
+ * ходившей стороны (int). записи не читаются в кучу: файл отображается в память кусками по SEGMENT записей,
+ * поиск - двоичный по хешам прямо в отображенных буферах. чтение по абсолютным адресам не меняет
+ * состояние буферов, поэтому книгу можно читать из многих потоков без блокировок
+ */
+final class OpeningBook implements Closeable {
+    static final int MAGIC = 0x444F4231;
+    static final int HEADER_BYTES = 16;
+    static final int ENTRY_BYTES = 8 + 4 + 4 + 4 + 4;
+    // записей в одном отображенном куске (меньше 2 ГБ)
+    static final int SEGMENT = 1 << 26;
+
+    // сколько полуходов от начала партии в книге
+    final int plies;
+    private final long count;
+    private final FileChannel channel;
+    private final ByteBuffer[] segments;
+
+    private OpeningBook(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) throw new IOException("не дебютная книга");
+        plies = header.getInt();
+        count = header.getLong();
+        segments = new ByteBuffer[(int) ((count + SEGMENT - 1) / SEGMENT)];
+        for (int i = 0; i < segments.length; i++) {
+            long entries = Math.min(SEGMENT, count - (long) i * SEGMENT);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + (long) i * SEGMENT * ENTRY_BYTES, entries * ENTRY_BYTES);
+        }
+    }
+
+    /**
+     * открывает книгу
+     *
+     * @param file файл, созданный OpeningBookBuilder
+     * @return книга
+     * @throws IOException если файл не книга или ошибка чтения
+     */
+    static OpeningBook open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new OpeningBook(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return число записей
+     */
+    long size() {
+        return count;
+    }
+
+    /**
+     * первая запись позиции
+     *
+     * @param hash хеш позиции вместе со стороной, которая ходит
+     * @return номер записи или -1, если позиции нет в книге
+     */
+    long find(long hash) {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (hash(middle) < hash) low = middle + 1;
+            else high = middle;
+        }
+        return low < count && hash(low) == hash ? low : -1;
+    }
+
+    long hash(long entry) {
+        return segment(entry).getLong(offset(entry));
+    }
+
+    int move(long entry) {
+        return segment(entry).getInt(offset(entry) + 8);
+    }
+
+    int games(long entry) {
+        return segment(entry).getInt(offset(entry) + 12);
+    }
+
+    int wins(long entry) {
+        return segment(entry).getInt(offset(entry) + 16);
+    }
+
+    int losses(long entry) {
+        return segment(entry).getInt(offset(entry) + 20);
+    }
+
+    private ByteBuffer segment(long entry) {
+        return segments[(int) (entry / SEGMENT)];
+    }
+
+    private static int offset(long entry) {
+        return (int) (entry % SEGMENT) * ENTRY_BYTES;
+    }
+
+    /**
+     * самый частый ход книги в позиции среди ходов MoveGenerator (ход книги, которого нет среди них, пропускается)
+     *
+     * @param list ходы позиции, заполненные MoveGenerator
+     * @param hash хеш позиции вместе со стороной, которая ходит
+     * @return номер хода в list или -1, если в книге хода нет
+     */
+    int probe(MoveList list, long hash) {
+        long first = find(hash);
+        if (first < 0) return -1;
+        for (long entry = first; entry < count && hash(entry) == hash; entry++) {
+            int move = move(entry);
+            for (int i = 0; i < list.size; i++)
+                if ((list.moves[i] & 0x3FF) == move) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * запись книги для хода list.moves[i]
+     *
+     * @return номер записи или -1
+     */
+    long entry(MoveList list, int i, long hash) {
+        long first = find(hash);
+        if (first < 0) return -1;
+        for (long entry = first; entry < count && hash(entry) == hash; entry++)
+            if (move(entry) == (list.moves[i] & 0x3FF)) return entry;
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
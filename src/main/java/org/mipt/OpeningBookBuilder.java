@@ -0,0 +1,265 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * строит дебютную книгу (см. OpeningBook) из корпуса партий в формате input.txt
+ * <p>
+ * каждая партия разыгрывается на Battle так же, как в Main.play; перед каждым ходом из первых plies
+ * берется хеш позиции, ход - клетки, с которой ушла и на которую встала шашка. партия с ошибкой
+ * не попадает в книгу целиком. результат: если в конце партии у стороны, которая ходит, нет ходов,
+ * она проиграла; иначе партия не закончена и считается только в числе партий.
+ * статистика копится в открытой адресации на массивах примитивов, затем сортируется и пишется в файл
+ * <p>
+ * java -jar Draughts.jar book build &lt;каталог или файл с партиями&gt; &lt;книга&gt; [--plies=N]
+ * <br>
+ * java -jar Draughts.jar book probe &lt;книга&gt; [файл партии] - ходы книги в позиции после всех ходов партии
+ */
+final class OpeningBookBuilder {
+    static final int DEFAULT_PLIES = 40;
+
+    private final int plies;
+    // таблица ход -> статистика: пустая ячейка - games == 0
+    private long[] hashes = new long[1 << 16];
+    private int[] moves = new int[1 << 16];
+    private int[] games = new int[1 << 16];
+    private int[] wins = new int[1 << 16];
+    private int[] losses = new int[1 << 16];
+    private int size;
+    // позиции текущей партии до ее конца
+    private long[] gameHashes;
+    private int[] gameMoves;
+    private boolean[] gameWhite;
+    private final MoveList list = new MoveList();
+    // ходы белых и черных в строке (Main.split)
+    private final int[] bounds = new int[4];
+
+    int used;
+    int skipped;
+
+    OpeningBookBuilder(int plies) {
+        this.plies = plies;
+        gameHashes = new long[plies];
+        gameMoves = new int[plies];
+        gameWhite = new boolean[plies];
+    }
+
+    static void run(String[] args) {
+        int plies = DEFAULT_PLIES;
+        String[] files = new String[3];
+        int count = 0;
+        for (String arg : args) {
+            if (arg.startsWith("--plies=")) plies = Integer.parseInt(arg.substring("--plies=".length()));
+            else if (count < files.length) files[count++] = arg;
+        }
+        try {
+            if (count >= 3 && files[0].equals("build")) {
+                build(Paths.get(files[1]), Paths.get(files[2]), plies);
+            } else if (count >= 2 && files[0].equals("probe")) {
+                probe(Paths.get(files[1]), count > 2 ? files[2] : "input.txt");
+            } else {
+                System.out.println("book build <каталог или файл с партиями> <книга> [--plies=N]"
+                        + " | book probe <книга> [файл партии]");
+            }
+        } catch (IOException | Main.WhiteSquareException | Main.CheckRuleException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    private static void build(Path input, Path output, int plies) throws IOException {
+        long start = System.nanoTime();
+        OpeningBookBuilder builder = new OpeningBookBuilder(plies);
+        try (MappedGameReader reader = new MappedGameReader(input)) {
+            List<CharSequence> game;
+            while ((game = reader.next()) != null) builder.add(game);
+        }
+        builder.write(output);
+        System.out.printf("партий %d (с ошибками %d), записей %d, %d мс%n", builder.used, builder.skipped,
+                builder.size, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // ходы книги в позиции после всех ходов партии
+    private static void probe(Path book, String file)
+            throws IOException, Main.WhiteSquareException, Main.CheckRuleException {
+        List<String> lines = Main.readFile(file);
+        Main.Battle battle = Main.play(lines);
+        Main.DRAUGHT draught = Main.sideToMove(lines);
+        boolean white = draught == Main.DRAUGHT.WHITE;
+        MoveList list = new MoveList();
+        MoveGenerator.generate(battle, draught, list);
+        long hash = Search.hash(battle, white);
+        try (OpeningBook opening = OpeningBook.open(book)) {
+            int found = 0;
+            for (int i = 0; i < list.size; i++) {
+                long entry = opening.entry(list, i, hash);
+                if (entry < 0) continue;
+                found++;
+                System.out.printf("%s: партий %d, выигрышей %d, проигрышей %d%n", list.toString(i),
+                        opening.games(entry), opening.wins(entry), opening.losses(entry));
+            }
+            if (found == 0) System.out.println("позиции нет в книге");
+        }
+    }
+
+    /**
+     * разыгрывает партию и добавляет ее ходы в книгу
+     *
+     * @param lines строки партии
+     */
+    void add(List<? extends CharSequence> lines) {
+        int count = 0;
+        Main.Battle battle;
+        try {
+            battle = Main.play(lines.subList(0, Math.min(lines.size(), 2)));
+            for (CharSequence str : lines.subList(2, lines.size())) {
+                int split = Main.split(str, bounds);
+                count = move(battle, str, bounds[0], bounds[1], Main.DRAUGHT.WHITE, count);
+                if (split == 2) count = move(battle, str, bounds[2], bounds[3], Main.DRAUGHT.BLACK, count);
+            }
+        } catch (Main.WhiteSquareException | Main.CheckRuleException | RuntimeException e) {
+            skipped++;
+            return;
+        }
+        used++;
+        Main.DRAUGHT draught = Main.sideToMove(lines);
+        boolean decided = MoveGenerator.generate(battle, draught, list) == 0;
+        // проиграла сторона, которой нечем ходить
+        boolean whiteLost = draught == Main.DRAUGHT.WHITE;
+        for (int i = 0; i < count; i++) {
+            int slot = slot(gameHashes[i], gameMoves[i]);
+            games[slot]++;
+            if (decided && gameWhite[i] != whiteLost) wins[slot]++;
+            else if (decided) losses[slot]++;
+        }
+    }
+
+    // ход партии: позиция до хода запоминается, пока не набрано plies полуходов
+    private int move(Main.Battle battle, CharSequence str, int start, int end, Main.DRAUGHT draught, int count)
+            throws Main.CheckRuleException, Main.WhiteSquareException {
+        boolean white = draught == Main.DRAUGHT.WHITE;
+        long hash = Search.hash(battle, white);
+        int before = white ? battle.white : battle.black;
+        Main.parse(battle, str, start, end, draught);
+        int after = white ? battle.white : battle.black;
+        int from = before & ~after;
+        int to = after & ~before;
+        // пустой ход или взятие с возвратом на ту же клетку
+        if (Integer.bitCount(from) != 1 || Integer.bitCount(to) != 1 || count == plies) return count;
+        gameHashes[count] = hash;
+        gameMoves[count] = MoveList.move(Integer.numberOfTrailingZeros(from), Integer.numberOfTrailingZeros(to), 0);
+        gameWhite[count] = white;
+        return count + 1;
+    }
+
+    // ячейка таблицы для позиции и хода, новая при необходимости
+    private int slot(long hash, int move) {
+        if (size * 2 >= hashes.length) grow();
+        int mask = hashes.length - 1;
+        int slot = index(hash, move, mask);
+        while (games[slot] != 0) {
+            if (hashes[slot] == hash && moves[slot] == move) return slot;
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        moves[slot] = move;
+        size++;
+        return slot;
+    }
+
+    private static int index(long hash, int move, int mask) {
+        long mixed = (hash ^ move * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+        return (int) (mixed >>> 32) & mask;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        int[] oldMoves = moves;
+        int[] oldGames = games;
+        int[] oldWins = wins;
+        int[] oldLosses = losses;
+        int capacity = oldHashes.length * 2;
+        hashes = new long[capacity];
+        moves = new int[capacity];
+        games = new int[capacity];
+        wins = new int[capacity];
+        losses = new int[capacity];
+        for (int i = 0; i < oldHashes.length; i++) {
+            if (oldGames[i] == 0) continue;
+            int slot = index(oldHashes[i], oldMoves[i], capacity - 1);
+            while (games[slot] != 0) slot = (slot + 1) & (capacity - 1);
+            hashes[slot] = oldHashes[i];
+            moves[slot] = oldMoves[i];
+            games[slot] = oldGames[i];
+            wins[slot] = oldWins[i];
+            losses[slot] = oldLosses[i];
+        }
+    }
+
+    /**
+     * сортирует записи и пишет книгу
+     *
+     * @param output файл книги
+     * @throws IOException если ошибка записи
+     */
+    void write(Path output) throws IOException {
+        // записи в начало массивов
+        int n = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (games[i] == 0) continue;
+            hashes[n] = hashes[i];
+            moves[n] = moves[i];
+            games[n] = games[i];
+            wins[n] = wins[i];
+            losses[n] = losses[i];
+            n++;
+        }
+        RecordSort.sort(0, n - 1, this::less, this::swap);
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(OpeningBook.ENTRY_BYTES * 4096);
+            buffer.putInt(OpeningBook.MAGIC).putInt(plies).putLong(n);
+            for (int i = 0; i < n; i++) {
+                if (buffer.remaining() < OpeningBook.ENTRY_BYTES) flush(channel, buffer);
+                buffer.putLong(hashes[i]).putInt(moves[i]).putInt(games[i]).putInt(wins[i]).putInt(losses[i]);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    // порядок записей: по хешу, с одним хешем - по числу партий по убыванию
+    private boolean less(int a, int b) {
+        if (hashes[a] != hashes[b]) return hashes[a] < hashes[b];
+        if (games[a] != games[b]) return games[a] > games[b];
+        return moves[a] < moves[b];
+    }
+
+    private void swap(int a, int b) {
+        long hash = hashes[a];
+        hashes[a] = hashes[b];
+        hashes[b] = hash;
+        int move = moves[a];
+        moves[a] = moves[b];
+        moves[b] = move;
+        int game = games[a];
+        games[a] = games[b];
+        games[b] = game;
+        int win = wins[a];
+        wins[a] = wins[b];
+        wins[b] = win;
+        int loss = losses[a];
+        losses[a] = losses[b];
+        losses[b] = loss;
+    }
+}
@@ -0,0 +1,218 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * партия в PDN: заголовки, ходы и результат
+ * <p>
+ * java -jar Draughts.jar pdn import &lt;файл.pdn&gt; [файл результатов] - проверка партий,
+ * результаты как в пакетном режиме
+ * <br>
+ * java -jar Draughts.jar pdn export &lt;файл с партиями&gt; &lt;файл.pdn&gt; - партии в формате input.txt в PDN
+ */
+class PdnGame {
+    // русские шашки
+    static final String GAME_TYPE = "25";
+    // начальная расстановка
+    static final String INITIAL_WHITE = "a1 c1 e1 g1 b2 d2 f2 h2 a3 c3 e3 g3";
+    static final String INITIAL_BLACK = "b6 d6 f6 h6 a7 c7 e7 g7 b8 d8 f8 h8";
+
+    final Map<String, String> tags = new LinkedHashMap<>();
+    // ходы в нижнем регистре: c3-d4, c3:e5:g3
+    final List<String> moves = new ArrayList<>();
+    String result = "*";
+
+    static void run(String[] args) {
+        try {
+            if (args.length >= 2 && args[0].equals("import")) {
+                importGames(args[1], args.length > 2 ? args[2] : "output.txt");
+            } else if (args.length >= 3 && args[0].equals("export")) {
+                exportGames(args[1], args[2]);
+            } else {
+                System.out.println("pdn import <файл.pdn> [файл результатов]"
+                        + " | pdn export <файл с партиями> <файл.pdn>");
+            }
+        } catch (IOException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    // проверяет партии из PDN, результаты пишутся как в Main.batch
+    private static void importGames(String input, String output) throws IOException {
+        try (PdnReader reader = new PdnReader(FileChannel.open(Paths.get(input), StandardOpenOption.READ));
+             ChannelWriter writer = new ChannelWriter(FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            PdnGame game;
+            while ((game = reader.next()) != null) {
+                String result;
+                try {
+                    result = game.replay().battleToString();
+                } catch (Main.WhiteSquareException | Main.CheckRuleException e) {
+                    result = e.getMessage();
+                } catch (RuntimeException e) {
+                    result = "error " + e;
+                }
+                Main.writeResult(writer, result);
+            }
+        }
+    }
+
+    // партии в формате input.txt (через Main.GAME_DELIMITER) в PDN
+    private static void exportGames(String input, String output) throws IOException {
+        try (MappedGameReader reader = new MappedGameReader(Paths.get(input));
+             PdnWriter writer = new PdnWriter(FileChannel.open(Paths.get(output), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))) {
+            List<CharSequence> lines;
+            while ((lines = reader.next()) != null) {
+                if (lines.size() >= 2) writer.write(fromLines(lines));
+            }
+        }
+    }
+
+    /**
+     * партия из строк формата input.txt: белые, черные, затем ходы "белых черных"
+     *
+     * @param lines строки партии
+     * @return партия; если расстановка не начальная, она записывается в заголовок FEN
+     */
+    static PdnGame fromLines(List<? extends CharSequence> lines) {
+        PdnGame game = new PdnGame();
+        game.tags.put("GameType", GAME_TYPE);
+        String white = lines.get(0).toString().trim();
+        String black = lines.get(1).toString().trim();
+        if (!sameSquares(white, INITIAL_WHITE) || !sameSquares(black, INITIAL_BLACK))
+            game.tags.put("FEN", "W:W" + fen(white) + ":B" + fen(black));
+        // как в Main.play: ход черных, только если на строке ровно два хода
+        for (CharSequence line : lines.subList(2, lines.size())) {
+            String[] moves = line.toString().trim().split(" ");
+            if (moves[0].isEmpty()) continue;
+            game.moves.add(moves[0].toLowerCase());
+            if (moves.length == 2) game.moves.add(moves[1].toLowerCase());
+        }
+        return game;
+    }
+
+    // те же клетки в любом порядке
+    private static boolean sameSquares(String positions, String expected) {
+        String[] squares = positions.split("\\s+");
+        String[] initial = expected.split(" ");
+        Arrays.sort(squares);
+        Arrays.sort(initial);
+        return Arrays.equals(squares, initial);
+    }
+
+    // "a1 C3" -> "a1,Kc3"
+    private static String fen(String positions) {
+        StringBuilder builder = new StringBuilder();
+        for (String position : positions.split("\\s+")) {
+            if (position.isEmpty()) continue;
+            if (builder.length() > 0) builder.append(',');
+            if (Character.isUpperCase(position.charAt(0))) builder.append('K');
+            builder.append(position.toLowerCase());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * разыгрывает партию на Battle: расстановка из FEN (или начальная), ходы по очереди
+     * <p>
+     * в PDN дамка не отличается регистром, а Battle узнает дамку по заглавной букве,
+     * поэтому ход ищется среди ходов MoveGenerator и записывается как MoveList.toString
+     *
+     * @return игровое поле после всех ходов
+     * @throws Main.WhiteSquareException если белая клетка
+     * @throws Main.CheckRuleException   если ошибка
+     */
+    Main.Battle replay() throws Main.WhiteSquareException, Main.CheckRuleException {
+        String white = INITIAL_WHITE;
+        String black = INITIAL_BLACK;
+        Main.DRAUGHT draught = Main.DRAUGHT.WHITE;
+        String fen = tags.get("FEN");
+        if (fen != null) {
+            white = "";
+            black = "";
+            for (String part : fen.trim().split(":")) {
+                if (part.isEmpty()) continue;
+                char side = Character.toUpperCase(part.charAt(0));
+                if (part.length() == 1) {
+                    draught = side == 'B' ? Main.DRAUGHT.BLACK : Main.DRAUGHT.WHITE;
+                } else if (side == 'W') {
+                    white = positions(part.substring(1));
+                } else if (side == 'B') {
+                    black = positions(part.substring(1));
+                }
+            }
+        }
+        Main.Battle battle = new Main.Battle(Main.getPositions(white, Main.DRAUGHT.WHITE),
+                Main.getPositions(black, Main.DRAUGHT.BLACK));
+        MoveList list = new MoveList();
+        for (String move : moves) {
+            Main.parse(battle, notation(battle, draught, move, list), draught);
+            draught = draught == Main.DRAUGHT.WHITE ? Main.DRAUGHT.BLACK : Main.DRAUGHT.WHITE;
+        }
+        return battle;
+    }
+
+    // "Ka1,c3." -> "A1 c3"
+    private static String positions(String fen) {
+        StringBuilder builder = new StringBuilder();
+        for (String piece : fen.split(",")) {
+            piece = piece.trim();
+            if (piece.endsWith(".")) piece = piece.substring(0, piece.length() - 1);
+            if (piece.isEmpty()) continue;
+            boolean king = Character.toUpperCase(piece.charAt(0)) == 'K';
+            if (king) piece = piece.substring(1);
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(king ? piece.toUpperCase() : piece.toLowerCase());
+        }
+        return builder.toString();
+    }
+
+    /**
+     * ход в нотации Main.parse: среди ходов MoveGenerator ищется ход с теми же клетками
+     *
+     * @return найденный ход или move без изменений
+     */
+    private static String notation(Main.Battle battle, Main.DRAUGHT draught, String move, MoveList list) {
+        int[] squares = squares(move);
+        if (squares == null) return move;
+        int size = MoveGenerator.generate(battle, draught, list);
+        for (int i = 0; i < size; i++) {
+            int generated = list.moves[i];
+            if (MoveList.from(generated) != squares[0] || MoveList.to(generated) != squares[squares.length - 1])
+                continue;
+            // промежуточные клетки взятия, если записаны, должны совпасть
+            if (list.captures[i] != 0 && squares.length > 2) {
+                long path = list.paths[i];
+                boolean same = Integer.bitCount(list.captures[i]) == squares.length - 1;
+                for (int n = 1; same && n < squares.length; n++, path >>>= 5) same = (path & 31) == squares[n];
+                if (!same) continue;
+            }
+            return list.toString(i);
+        }
+        return move;
+    }
+
+    // клетки хода или null, если это не ход
+    private static int[] squares(String move) {
+        String[] parts = move.split("[-:]");
+        int[] squares = new int[parts.length];
+        if (parts.length < 2) return null;
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                squares[i] = Main.square(parts[i], 0, parts[i].length());
+            } catch (Main.WhiteSquareException | RuntimeException e) {
+                return null;
+            }
+        }
+        return squares;
+    }
+}
@@ -0,0 +1,193 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * потоковое чтение PDN: партии по одной из канала через буфер постоянного размера
+ * <p>
+ * заголовки [Имя "значение"], текст ходов с номерами "1." и "1...", комментарии {...} и ;...,
+ * варианты (...) и оценки $N пропускаются. партия кончается результатом (1-0, 0-1, 2-0, 0-2, 1-1,
+ * 1/2-1/2, *) или следующим заголовком. в памяти только буфер и текущая партия, поэтому размер файла не важен
+ */
+class PdnReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    // байты текущего слова или значения заголовка
+    private byte[] token = new byte[64];
+    private int length;
+    // прочитанный, но еще не разобранный байт, -2 если нет
+    private int pushed = -2;
+
+    /**
+     * @param channel канал с текстом PDN в UTF-8
+     */
+    PdnReader(ReadableByteChannel channel) {
+        this.channel = channel;
+        buffer.flip();
+    }
+
+    /**
+     * следующая партия
+     *
+     * @return партия или null, если партии закончились
+     * @throws IOException если ошибка чтения
+     */
+    PdnGame next() throws IOException {
+        PdnGame game = new PdnGame();
+        boolean empty = true;
+        int c;
+        while ((c = skipSpaces()) >= 0) {
+            if (c == '[') {
+                // заголовок после ходов - уже следующая партия
+                if (!game.moves.isEmpty()) {
+                    pushed = c;
+                    return game;
+                }
+                readTag(game);
+                empty = false;
+            } else if (c == '{') {
+                skipUntil('}');
+            } else if (c == ';') {
+                skipUntil('\n');
+            } else if (c == '(') {
+                skipVariation();
+            } else {
+                readToken(c);
+                empty = false;
+                if (isResult()) {
+                    game.result = tokenString();
+                    return game;
+                }
+                String move = move();
+                if (move != null) game.moves.add(move);
+            }
+        }
+        return empty ? null : game;
+    }
+
+    // [Имя "значение"]
+    private void readTag(PdnGame game) throws IOException {
+        int c = skipSpaces();
+        length = 0;
+        while (c >= 0 && c > ' ' && c != '"' && c != ']') {
+            append(c);
+            c = read();
+        }
+        String name = tokenString();
+        while (c >= 0 && c != '"' && c != ']') c = read();
+        length = 0;
+        if (c == '"') {
+            while ((c = read()) >= 0 && c != '"') {
+                if (c == '\\') c = read();
+                if (c >= 0) append(c);
+            }
+            while (c >= 0 && c != ']') c = read();
+        }
+        game.tags.put(name, tokenString());
+    }
+
+    // слово до пробела или начала комментария, заголовка, варианта
+    private void readToken(int c) throws IOException {
+        length = 0;
+        while (c > ' ' && c != '{' && c != '(' && c != ';' && c != '[') {
+            append(c);
+            c = read();
+        }
+        if (c >= 0) pushed = c;
+    }
+
+    private boolean isResult() {
+        return is("1-0") || is("0-1") || is("2-0") || is("0-2") || is("1-1") || is("0-0") || is("1/2-1/2")
+                || is("*");
+    }
+
+    private boolean is(String result) {
+        if (length != result.length()) return false;
+        for (int i = 0; i < length; i++) if (token[i] != result.charAt(i)) return false;
+        return true;
+    }
+
+    /**
+     * ход из слова: номер хода, оценки и знаки !? отбрасываются, x заменяется на :
+     *
+     * @return ход в нижнем регистре или null, если в слове нет хода
+     */
+    private String move() {
+        int start = 0;
+        // номер хода "12." или "12..." может быть слитно с ходом
+        while (start < length && token[start] >= '0' && token[start] <= '9') start++;
+        if (start < length && token[start] == '.') {
+            while (start < length && token[start] == '.') start++;
+        } else {
+            start = 0;
+        }
+        if (start == length || token[start] == '$') return null;
+        StringBuilder move = new StringBuilder(length - start);
+        for (int i = start; i < length; i++) {
+            char c = (char) token[i];
+            if (c == 'x' || c == 'X') move.append(':');
+            else if (c == '-' || c == ':' || (c >= '1' && c <= '8')) move.append(c);
+            else if ((c | 0x20) >= 'a' && (c | 0x20) <= 'h') move.append((char) (c | 0x20));
+        }
+        return move.length() == 0 ? null : move.toString();
+    }
+
+    // вариант (...) с вложенными вариантами и комментариями
+    private void skipVariation() throws IOException {
+        int depth = 1;
+        int c;
+        while (depth > 0 && (c = read()) >= 0) {
+            if (c == '(') depth++;
+            else if (c == ')') depth--;
+            else if (c == '{') skipUntil('}');
+        }
+    }
+
+    private void skipUntil(int end) throws IOException {
+        int c;
+        do c = read(); while (c >= 0 && c != end);
+    }
+
+    private int skipSpaces() throws IOException {
+        int c;
+        do c = read(); while (c >= 0 && c <= ' ');
+        return c;
+    }
+
+    private void append(int c) {
+        if (length == token.length) token = Arrays.copyOf(token, length * 2);
+        token[length++] = (byte) c;
+    }
+
+    private String tokenString() {
+        return new String(token, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // следующий байт или -1 в конце канала
+    private int read() throws IOException {
+        if (pushed != -2) {
+            int c = pushed;
+            pushed = -2;
+            return c;
+        }
+        while (!buffer.hasRemaining()) {
+            buffer.clear();
+            int read = channel.read(buffer);
+            buffer.flip();
+            if (read < 0) return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,71 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.Map;
+
+/**
+ * запись партий в PDN через ChannelWriter
+ */
+class PdnWriter implements Closeable {
+    // длина строки текста ходов
+    private static final int LINE_WIDTH = 80;
+
+    private final ChannelWriter writer;
+    // текст текущей партии
+    private final StringBuilder text = new StringBuilder();
+
+    /**
+     * @param channel канал, в который пишется PDN в UTF-8
+     */
+    PdnWriter(WritableByteChannel channel) {
+        writer = new ChannelWriter(channel);
+    }
+
+    /**
+     * записывает партию: заголовки, пустая строка, ходы с номерами и результат
+     *
+     * @param game партия
+     * @throws IOException если ошибка записи
+     */
+    void write(PdnGame game) throws IOException {
+        text.setLength(0);
+        for (Map.Entry<String, String> tag : game.tags.entrySet()) {
+            text.append('[').append(tag.getKey()).append(" \"");
+            String value = tag.getValue();
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') text.append('\\');
+                text.append(c);
+            }
+            text.append("\"]\n");
+        }
+        text.append('\n');
+
+        // ходы черных первыми, если так указано в FEN
+        String fen = game.tags.get("FEN");
+        int first = fen != null && fen.trim().toUpperCase().startsWith("B") ? 1 : 0;
+        int ply = first;
+        int line = text.length();
+        for (String move : game.moves) {
+            String number = ply % 2 == 0 ? (ply / 2 + 1) + ". " : ply == first ? "1... " : "";
+            if (text.length() - line + number.length() + move.length() > LINE_WIDTH) {
+                text.append('\n');
+                line = text.length();
+            } else if (text.length() > line) {
+                text.append(' ');
+            }
+            text.append(number).append(move);
+            ply++;
+        }
+        if (text.length() > line) text.append(' ');
+        text.append(game.result).append("\n\n");
+        writer.append(text);
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
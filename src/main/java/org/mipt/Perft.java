@@ -0,0 +1,153 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * perft: число позиций на глубине N, проверка генератора ходов и замер его скорости
+ * <p>
+ * java -jar Draughts.jar perft N [файл с позицией] [white|black] [--battle]
+ * файл - как input.txt: первая строка белые, вторая черные. без файла - начальная позиция.
+ * white|black и --battle - в любом месте, в том числе без файла
+ * --battle - обход на одном Main.Battle через make/unmake вместо передачи масок в рекурсии
+ */
+final class Perft {
+    // эталон для начальной позиции русских шашек, ход белых: глубина 0..9
+    static final long[] REFERENCE = {1, 7, 49, 302, 1469, 7482, 37986, 190146, 929905, 4570667};
+
+    // начальная позиция: белые a1-h2, черные a7-h8
+    static final int INITIAL_WHITE = 0x00000FFF;
+    static final int INITIAL_BLACK = 0xFFF00000;
+
+    // буфер ходов на каждую глубину
+    private final MoveList[] lists;
+
+    Perft(int depth) {
+        lists = new MoveList[depth + 1];
+        for (int i = 0; i <= depth; i++) lists[i] = new MoveList();
+    }
+
+    static void run(String[] args) {
+        boolean onBattle = false;
+        boolean whiteToMove = true;
+        // глубина и файл - по порядку, white, black и --battle - где угодно
+        List<String> positional = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--battle")) onBattle = true;
+            else if (arg.equalsIgnoreCase("white")) whiteToMove = true;
+            else if (arg.equalsIgnoreCase("black")) whiteToMove = false;
+            else positional.add(arg);
+        }
+        int depth;
+        try {
+            depth = positional.isEmpty() ? 0 : Integer.parseInt(positional.get(0));
+        } catch (NumberFormatException e) {
+            depth = 0;
+        }
+        if (depth < 1) {
+            System.out.println("perft N [файл с позицией] [white|black] [--battle], глубина N от 1");
+            return;
+        }
+        int white = INITIAL_WHITE;
+        int black = INITIAL_BLACK;
+        int kings = 0;
+        if (positional.size() > 1) {
+            try {
+                List<String> lines = Main.readFile(positional.get(1));
+                Main.Battle battle = Main.play(lines.subList(0, 2));
+                white = battle.white;
+                black = battle.black;
+                kings = battle.kings;
+            } catch (IOException | Main.WhiteSquareException | Main.CheckRuleException e) {
+                System.out.println("Ошибка " + e.getMessage());
+                return;
+            }
+        }
+        boolean initial = white == INITIAL_WHITE && black == INITIAL_BLACK && kings == 0 && whiteToMove;
+
+        Perft perft = new Perft(depth);
+        for (int d = 1; d <= depth; d++) {
+            long start = System.nanoTime();
+            long nodes;
+            if (onBattle) nodes = perft.count(battle(white, black, kings), whiteToMove, d);
+            else nodes = whiteToMove ? perft.count(white, black, kings, true, d)
+                    : perft.count(black, white, kings, false, d);
+            long time = System.nanoTime() - start;
+            String check = !initial || d >= REFERENCE.length ? ""
+                    : nodes == REFERENCE[d] ? ", совпадает с эталоном" : ", ОШИБКА: эталон " + REFERENCE[d];
+            System.out.printf("perft %d: %d позиций, %d мс, %d позиций/с%s%n",
+                    d, nodes, time / 1_000_000, nodes * 1_000_000_000L / Math.max(time, 1), check);
+        }
+    }
+
+    /**
+     * число позиций на глубине depth
+     *
+     * @param own   шашки стороны, которая ходит
+     * @param enemy шашки противника
+     * @param kings дамки
+     * @param white ходят белые
+     * @param depth глубина
+     * @return число позиций
+     */
+    long count(int own, int enemy, int kings, boolean white, int depth) {
+        if (depth == 0) return 1;
+        MoveList list = lists[depth];
+        int size = MoveGenerator.generate(own, enemy, kings, white, list);
+        if (depth == 1) return size;
+
+        long nodes = 0;
+        for (int i = 0; i < size; i++) {
+            int move = list.moves[i];
+            int from = 1 << MoveList.from(move);
+            int to = 1 << MoveList.to(move);
+            int captured = list.captures[i];
+            // дамка может вернуться на ту же клетку, поэтому сначала снимаем, потом ставим
+            int next = (own & ~from) | to;
+            int nextKings = kings & ~captured;
+            if ((kings & from) != 0 || (move & MoveList.PROMOTION) != 0) nextKings = (nextKings & ~from) | to;
+            nodes += count(enemy & ~captured, next, nextKings, !white, depth - 1);
+        }
+        return nodes;
+    }
+
+    /**
+     * то же на поле: ход делается make и отменяется unmake, поле одно на весь обход
+     *
+     * @param battle поле, после подсчета такое же, как до него
+     * @param white  ходят белые
+     * @param depth  глубина
+     * @return число позиций
+     */
+    long count(Main.Battle battle, boolean white, int depth) {
+        if (depth == 0) return 1;
+        MoveList list = lists[depth];
+        int size = MoveGenerator.generate(battle, white ? Main.DRAUGHT.WHITE : Main.DRAUGHT.BLACK, list);
+        if (depth == 1) return size;
+
+        long nodes = 0;
+        for (int i = 0; i < size; i++) {
+            battle.make(list, i);
+            nodes += count(battle, !white, depth - 1);
+            battle.unmake();
+        }
+        return nodes;
+    }
+
+    // поле с шашками по маскам
+    private static Main.Battle battle(int white, int black, int kings) {
+        return new Main.Battle(positions(white, kings, Main.DRAUGHT.WHITE),
+                positions(black, kings, Main.DRAUGHT.BLACK));
+    }
+
+    private static List<Main.Position> positions(int mask, int kings, Main.DRAUGHT draught) {
+        List<Main.Position> positions = new ArrayList<>();
+        for (; mask != 0; mask &= mask - 1) {
+            int square = Integer.numberOfTrailingZeros(mask);
+            char file = (char) (((kings & (1 << square)) != 0 ? 'A' : 'a') + BitBoard.file(square));
+            positions.add(new Main.Position(file, BitBoard.rank(square), draught));
+        }
+        return positions;
+    }
+}
@@ -0,0 +1,187 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * индекс позиций архива партий: поле после каждых every ходов партии, чтобы позиция после хода N
+ * разыгрывалась не с начала, а с ближайшего сохраненного поля - не больше every ходов
+ * <p>
+ * файл: заголовок (MAGIC, every, число партий, число полей), поля, затем для каждой партии номер ее
+ * первого поля и номер после последнего (int). поле - маски белых, черных, дамок и заглавных пустых клеток
+ * (см. Main.Battle, int) и смещение следующего хода в архиве (long), ENTRY_BYTES байт. поле k партии - после (k + 1) * every
+ * ходов. индекс строится проверкой всех партий архива: у партии с ошибкой поля есть только до ошибки,
+ * у партии, записанной текстом, их нет совсем
+ * <p>
+ * java -jar Draughts.jar archive index &lt;архив&gt; [индекс] [--every=K]
+ * <br>
+ * java -jar Draughts.jar archive ply &lt;архив&gt; N ход [индекс] - игровое поле партии N после хода
+ */
+final class PlyIndex implements Closeable {
+    static final int MAGIC = 0x44504932;
+    static final int HEADER_BYTES = 16;
+    static final int ENTRY_BYTES = 24;
+    static final int DEFAULT_EVERY = 16;
+
+    private final FileChannel channel;
+    private final MappedFile buffer;
+    private final int every;
+    private final int games;
+    private final long directory;
+
+    private PlyIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        buffer = new MappedFile(channel);
+        if (buffer.size() < HEADER_BYTES || buffer.getInt(0) != MAGIC) throw new IOException("не индекс позиций");
+        every = buffer.getInt(4);
+        games = buffer.getInt(8);
+        directory = HEADER_BYTES + (long) buffer.getInt(12) * ENTRY_BYTES;
+    }
+
+    /**
+     * открывает индекс архива
+     *
+     * @param file    файл индекса
+     * @param archive архив, для которого он построен
+     * @return индекс
+     * @throws IOException если файл не индекс этого архива или ошибка чтения
+     */
+    static PlyIndex open(Path file, GameArchive archive) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            PlyIndex index = new PlyIndex(channel);
+            if (index.games != archive.size()) throw new IOException("индекс построен для другого архива");
+            return index;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * проверяет все партии архива и пишет поля после каждых every ходов
+     *
+     * @param archive архив
+     * @param file    файл индекса
+     * @param every   через сколько ходов сохранять поле
+     * @return число полей
+     * @throws IOException если ошибка записи
+     */
+    static int build(GameArchive archive, Path file, int every) throws IOException {
+        int[] first = new int[archive.size() + 1];
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(ENTRY_BYTES * 4096);
+            channel.position(HEADER_BYTES);
+            for (int game = 0; game < archive.size(); game++) {
+                first[game] = count;
+                if (archive.text(game)) continue;
+                Main.Battle battle = archive.board(game);
+                long end = archive.end(game);
+                int ply = 0;
+                try {
+                    for (long position = archive.moves(game); position < end; ) {
+                        position = archive.step(battle, position);
+                        if (++ply % every != 0) continue;
+                        if (out.remaining() < ENTRY_BYTES) flush(channel, out);
+                        out.putInt(battle.white).putInt(battle.black).putInt(battle.kings).putInt(battle.marks)
+                                .putLong(position);
+                        count++;
+                    }
+                } catch (Main.CheckRuleException | RuntimeException e) {
+                    // дальше ошибки полей нет, запрос все равно дойдет до нее
+                }
+            }
+            first[archive.size()] = count;
+            for (int value : first) {
+                if (out.remaining() < Integer.BYTES) flush(channel, out);
+                out.putInt(value);
+            }
+            flush(channel, out);
+            out.putInt(MAGIC).putInt(every).putInt(archive.size()).putInt(count);
+            out.flip();
+            while (out.hasRemaining()) channel.write(out, out.position());
+        }
+        return count;
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) channel.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * игровое поле партии после хода ply: с ближайшего поля индекса (если индекс есть) разыгрывается
+     * не больше every ходов. если партия короче, то поле после всех ходов
+     *
+     * @param archive архив
+     * @param index   индекс архива или null - тогда партия разыгрывается с начала
+     * @param game    номер партии
+     * @param ply     сколько ходов сделать (ход белых и ход черных - два хода; пустой ход не считается)
+     * @return игровое поле в виде строки или текст ошибки, как у Main.validate
+     */
+    static String position(GameArchive archive, PlyIndex index, int game, int ply) {
+        try {
+            if (archive.text(game)) return text(archive.lines(game), ply).battleToString();
+            Main.Battle battle;
+            long position;
+            int done;
+            int snapshot = index == null ? 0 : index.snapshot(game, ply);
+            if (snapshot > 0) {
+                long entry = HEADER_BYTES + (long) (index.first(game) + snapshot - 1) * ENTRY_BYTES;
+                battle = new Main.Battle(index.buffer.getInt(entry), index.buffer.getInt(entry + 4),
+                        index.buffer.getInt(entry + 8), index.buffer.getInt(entry + 12));
+                position = index.buffer.getLong(entry + 16);
+                done = snapshot * index.every;
+            } else {
+                battle = archive.board(game);
+                position = archive.moves(game);
+                done = 0;
+            }
+            long end = archive.end(game);
+            for (; done < ply && position < end; done++) position = archive.step(battle, position);
+            return battle.battleToString();
+        } catch (Main.WhiteSquareException | Main.CheckRuleException e) {
+            return e.getMessage();
+        } catch (RuntimeException e) {
+            return "error " + e;
+        }
+    }
+
+    // поле партии, записанной текстом, после ply ходов: ходы строк по порядку, как в Main.play
+    private static Main.Battle text(List<String> lines, int ply)
+            throws Main.WhiteSquareException, Main.CheckRuleException {
+        Main.Battle battle = Main.setup(lines);
+        for (int i = 2; i < lines.size() && ply > 0; i++) ply -= Main.playLine(battle, lines.get(i), ply);
+        return battle;
+    }
+
+    // сколько полей партии можно взять для позиции после ply ходов
+    private int snapshot(int game, int ply) {
+        return Math.min(ply / every, first(game + 1) - first(game));
+    }
+
+    // номер первого поля партии
+    private int first(int game) {
+        return buffer.getInt(directory + (long) game * Integer.BYTES);
+    }
+
+    /**
+     * @return через сколько ходов сохранены поля
+     */
+    int every() {
+        return every;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
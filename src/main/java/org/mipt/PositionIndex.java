@@ -0,0 +1,185 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * индекс позиций: по хешу позиции - все партии и ходы, после которых она была на доске
+ * <p>
+ * файл: заголовок (MAGIC, число партий, число сегментов, MAX_SEGMENTS), таблица сегментов (смещение и число
+ * записей, по long), затем сегменты. запись - хеш позиции (Search.hash, со стороной, которая ходит), номер
+ * партии и номер хода (int), ENTRY_BYTES байт; в сегменте записи отсортированы по хешу, затем по партии
+ * и ходу. новые партии дописываются новыми сегментами (см. PositionIndexWriter), сегменты отображаются
+ * в память и ищутся двоичным поиском каждый - в куче только массив найденных записей.
+ * номера партий сквозные: партии следующего добавленного архива идут после партий предыдущего
+ * <p>
+ * java -jar Draughts.jar positions add &lt;индекс&gt; &lt;архив&gt;... - дописать партии архивов
+ * <br>
+ * java -jar Draughts.jar positions find &lt;индекс&gt; [файл партии] - партии, где была позиция после всех ходов
+ */
+final class PositionIndex implements Closeable {
+    static final int MAGIC = 0x44504F31;
+    static final int MAX_SEGMENTS = 16;
+    static final int HEADER_BYTES = 16 + MAX_SEGMENTS * 2 * Long.BYTES;
+    static final int ENTRY_BYTES = 16;
+    // записей в сегменте не больше, чем помещается в одно отображение
+    static final int MAX_SEGMENT_ENTRIES = Integer.MAX_VALUE / ENTRY_BYTES;
+    // сколько найденных записей печатать
+    private static final int PRINT_LIMIT = 20;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final int games;
+    private final long size;
+
+    private PositionIndex(FileChannel channel) throws IOException {
+        this.channel = channel;
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), HEADER_BYTES));
+        header.order(ByteOrder.BIG_ENDIAN);
+        if (header.limit() < HEADER_BYTES || header.getInt(0) != MAGIC) throw new IOException("не индекс позиций");
+        games = header.getInt(4);
+        segments = new MappedByteBuffer[header.getInt(8)];
+        long total = 0;
+        for (int i = 0; i < segments.length; i++) {
+            long offset = header.getLong(16 + i * 16);
+            long count = header.getLong(24 + i * 16);
+            segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, count * ENTRY_BYTES);
+            segments[i].order(ByteOrder.BIG_ENDIAN);
+            total += count;
+        }
+        size = total;
+    }
+
+    /**
+     * открывает индекс для поиска
+     *
+     * @param file файл индекса
+     * @return индекс
+     * @throws IOException если файл не индекс позиций или ошибка чтения
+     */
+    static PositionIndex open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new PositionIndex(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static void run(String[] args) {
+        try {
+            if (args.length >= 3 && args[0].equals("add")) {
+                long start = System.nanoTime();
+                try (PositionIndexWriter writer = new PositionIndexWriter(Paths.get(args[1]))) {
+                    for (int i = 2; i < args.length; i++) {
+                        try (GameArchive archive = GameArchive.open(Paths.get(args[i]))) {
+                            System.out.printf("%s: партии %d-%d%n", args[i], writer.games(),
+                                    writer.games() + archive.size() - 1);
+                            writer.add(archive);
+                        }
+                    }
+                }
+                try (PositionIndex index = open(Paths.get(args[1]))) {
+                    System.out.printf("партий %d, записей %d, сегментов %d, %d байт, %d мс%n", index.games,
+                            index.size, index.segments.length, Paths.get(args[1]).toFile().length(),
+                            (System.nanoTime() - start) / 1_000_000);
+                }
+            } else if (args.length >= 2 && args[0].equals("find")) {
+                find(Paths.get(args[1]), args.length > 2 ? args[2] : "input.txt");
+            } else {
+                System.out.println("positions add <индекс> <архив>... | positions find <индекс> [файл партии]");
+            }
+        } catch (IOException | Main.WhiteSquareException | Main.CheckRuleException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    // партии с позицией после всех ходов партии из файла
+    private static void find(Path file, String game)
+            throws IOException, Main.WhiteSquareException, Main.CheckRuleException {
+        List<String> lines = Main.readFile(game);
+        Main.Battle battle = Main.play(lines);
+        long hash = Search.hash(battle, Main.sideToMove(lines) == Main.DRAUGHT.WHITE);
+        try (PositionIndex index = open(file)) {
+            long start = System.nanoTime();
+            long[] found = index.find(hash);
+            long nanos = System.nanoTime() - start;
+            System.out.printf("найдено %d (партий в индексе %d), %.1f мкс%n", found.length, index.games,
+                    nanos / 1000.0);
+            for (int i = 0; i < found.length && i < PRINT_LIMIT; i++)
+                System.out.printf("партия %d, ход %d%n", game(found[i]), ply(found[i]));
+            if (found.length > PRINT_LIMIT) System.out.println("...");
+        }
+    }
+
+    /**
+     * все записи позиции: по сегментам в порядке добавления, в сегменте - по партии и ходу
+     *
+     * @param hash хеш позиции (Search.hash)
+     * @return записи, см. game и ply
+     */
+    long[] find(long hash) {
+        long[] found = new long[0];
+        int count = 0;
+        for (MappedByteBuffer segment : segments) {
+            int entries = segment.limit() / ENTRY_BYTES;
+            // первая запись с хешем не меньше hash
+            int low = 0;
+            int high = entries;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (segment.getLong(middle * ENTRY_BYTES) < hash) low = middle + 1;
+                else high = middle;
+            }
+            for (int i = low; i < entries && segment.getLong(i * ENTRY_BYTES) == hash; i++) {
+                if (count == found.length) found = Arrays.copyOf(found, Math.max(8, count * 2));
+                found[count++] = segment.getLong(i * ENTRY_BYTES + 8);
+            }
+        }
+        return count == found.length ? found : Arrays.copyOf(found, count);
+    }
+
+    /**
+     * @param entry запись из find
+     * @return номер партии
+     */
+    static int game(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /**
+     * @param entry запись из find
+     * @return сколько ходов партии было сделано (0 - расстановка)
+     */
+    static int ply(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * @return число партий в индексе
+     */
+    int games() {
+        return games;
+    }
+
+    /**
+     * @return число записей
+     */
+    long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,284 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * дописывает партии в индекс позиций (формат см. PositionIndex)
+ * <p>
+ * каждая партия архива разыгрывается на Battle (GameArchive.step), после расстановки и после каждого хода
+ * запоминается хеш позиции; партия с ошибкой дает позиции до ошибки, партия, записанная текстом, - ни одной.
+ * записи копятся в массивах до runEntries (по умолчанию RUN_ENTRIES), сортируются и дописываются в конец
+ * файла новым сегментом, после чего переписывается заголовок - в файле всегда целые партии. когда сегментов
+ * становится mergeSegments (MERGE_SEGMENTS), последние из них сливаются в один (слияние отсортированных
+ * сегментов из отображенных файлов в новый файл, который затем заменяет индекс): два последних и дальше назад,
+ * пока предыдущий сегмент не больше уже слитых. большие старые сегменты переписываются редко, а поиск
+ * смотрит немного сегментов
+ */
+final class PositionIndexWriter implements Closeable {
+    // записей в новом сегменте по умолчанию: 16 байт в двух массивах на запись
+    static final int RUN_ENTRIES = 1 << 22;
+    // после скольких сегментов сливать по умолчанию
+    static final int MERGE_SEGMENTS = 8;
+
+    private final Path file;
+    private final int runEntries;
+    private final int mergeSegments;
+    private FileChannel channel;
+    private int games;
+    private int segments;
+    private final long[] offsets = new long[PositionIndex.MAX_SEGMENTS];
+    private final long[] counts = new long[PositionIndex.MAX_SEGMENTS];
+    // записи нового сегмента: хеш и партия << 32 | ход
+    private long[] hashes = new long[1024];
+    private long[] values = new long[1024];
+    private int size;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(PositionIndex.ENTRY_BYTES * 4096);
+
+    /**
+     * открывает индекс для дописывания, если файла нет - создает пустой
+     *
+     * @param file файл индекса
+     * @throws IOException если файл не индекс позиций или ошибка записи
+     */
+    PositionIndexWriter(Path file) throws IOException {
+        this(file, RUN_ENTRIES, MERGE_SEGMENTS);
+    }
+
+    /**
+     * то же, с размером сегмента и порогом слияния
+     *
+     * @param runEntries    записей в новом сегменте (сегмент заканчивается на конце партии, поэтому бывает больше)
+     * @param mergeSegments после скольких сегментов сливать последние; больше MAX_SEGMENTS - сливать, только
+     *                      когда таблица сегментов полна
+     */
+    PositionIndexWriter(Path file, int runEntries, int mergeSegments) throws IOException {
+        if (runEntries < 1 || mergeSegments < 2) throw new IllegalArgumentException("runEntries " + runEntries
+                + ", mergeSegments " + mergeSegments);
+        this.file = file;
+        this.runEntries = runEntries;
+        this.mergeSegments = mergeSegments;
+        boolean exists = Files.exists(file);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            if (exists) read();
+            else commit(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // заголовок существующего индекса
+    private void read() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PositionIndex.HEADER_BYTES);
+        while (header.hasRemaining() && channel.read(header, header.position()) >= 0) ;
+        if (header.hasRemaining() || header.getInt(0) != PositionIndex.MAGIC) throw new IOException("не индекс позиций");
+        games = header.getInt(4);
+        segments = header.getInt(8);
+        for (int i = 0; i < segments; i++) {
+            offsets[i] = header.getLong(16 + i * 16);
+            counts[i] = header.getLong(24 + i * 16);
+        }
+    }
+
+    /**
+     * @return номер следующей добавленной партии
+     */
+    int games() {
+        return games;
+    }
+
+    /**
+     * дописывает все партии архива
+     *
+     * @param archive архив
+     * @throws IOException если ошибка записи
+     */
+    void add(GameArchive archive) throws IOException {
+        int first = games;
+        for (int game = 0; game < archive.size(); game++) {
+            if (!archive.text(game)) positions(archive, game, first + game);
+            // сегмент заканчивается на конце партии
+            if (size >= runEntries) flush(first + game + 1);
+        }
+        flush(first + archive.size());
+    }
+
+    // позиции партии: после расстановки и после каждого хода до конца или до ошибки
+    private void positions(GameArchive archive, int game, int id) {
+        Main.Battle battle = archive.board(game);
+        int ply = 0;
+        add(Search.hash(battle, true), id, 0);
+        try {
+            long end = archive.end(game);
+            for (long position = archive.moves(game); position < end; ) {
+                // после хода черных ходят белые
+                boolean white = archive.blackMove(position);
+                position = archive.step(battle, position);
+                add(Search.hash(battle, white), id, ++ply);
+            }
+        } catch (Main.CheckRuleException | RuntimeException e) {
+            // позиции после ошибки в партии не было
+        }
+    }
+
+    private void add(long hash, int game, int ply) {
+        if (size == hashes.length) {
+            hashes = Arrays.copyOf(hashes, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        hashes[size] = hash;
+        values[size] = (long) game << 32 | ply;
+        size++;
+    }
+
+    /**
+     * пишет накопленные записи сегментом и заголовок с числом партий
+     *
+     * @param games партий в индексе после этого сегмента
+     */
+    private void flush(int games) throws IOException {
+        if (size > 0) {
+            if (segments == PositionIndex.MAX_SEGMENTS) merge();
+            RecordSort.sort(0, size - 1, this::less, this::swap);
+            long offset = Math.max(channel.size(), PositionIndex.HEADER_BYTES);
+            channel.position(offset);
+            for (int i = 0; i < size; i++) {
+                if (out.remaining() < PositionIndex.ENTRY_BYTES) write(channel);
+                out.putLong(hashes[i]).putLong(values[i]);
+            }
+            write(channel);
+            offsets[segments] = offset;
+            counts[segments++] = size;
+            size = 0;
+        }
+        this.games = games;
+        channel.force(false);
+        commit(channel);
+        if (segments >= mergeSegments) merge();
+    }
+
+    private void write(FileChannel target) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) target.write(out);
+        out.clear();
+    }
+
+    // заголовок и таблица сегментов в начало файла
+    private void commit(FileChannel target) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PositionIndex.HEADER_BYTES);
+        header.putInt(PositionIndex.MAGIC).putInt(games).putInt(segments).putInt(PositionIndex.MAX_SEGMENTS);
+        for (int i = 0; i < segments; i++) header.putLong(offsets[i]).putLong(counts[i]);
+        header.clear();
+        while (header.hasRemaining()) target.write(header, header.position());
+    }
+
+    /**
+     * сливает последние сегменты в один: индекс переписывается во временный файл (первые сегменты
+     * копируются как есть) и заменяет старый. когда таблица сегментов полна, сливаются все последние,
+     * которые вместе помещаются в одно отображение
+     *
+     * @throws IOException если сливать нечего, а сегментов уже MAX_SEGMENTS, или ошибка записи
+     */
+    private void merge() throws IOException {
+        boolean full = segments == PositionIndex.MAX_SEGMENTS;
+        int from = segments;
+        long total = 0;
+        while (from > 0 && total + counts[from - 1] <= PositionIndex.MAX_SEGMENT_ENTRIES
+                && (full || segments - from < 2 || counts[from - 1] <= total)) total += counts[--from];
+        if (segments - from < 2) {
+            if (segments == PositionIndex.MAX_SEGMENTS) throw new IOException("индекс больше, чем можно слить");
+            return;
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long[] newOffsets = new long[PositionIndex.MAX_SEGMENTS];
+        try (FileChannel target = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = PositionIndex.HEADER_BYTES;
+            for (int i = 0; i < from; i++) {
+                newOffsets[i] = position;
+                long bytes = counts[i] * PositionIndex.ENTRY_BYTES;
+                for (long done = 0; done < bytes; )
+                    done += channel.transferTo(offsets[i] + done, bytes - done, target.position(position + done));
+                position += bytes;
+            }
+            newOffsets[from] = position;
+            target.position(position);
+            mergeInto(target, from);
+            System.arraycopy(newOffsets, 0, offsets, 0, from + 1);
+            counts[from] = total;
+            segments = from + 1;
+            commit(target);
+            target.force(false);
+        }
+        channel.close();
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    // слияние сегментов from..segments-1 по хешу, партии и ходу в target с текущей позиции
+    private void mergeInto(FileChannel target, int from) throws IOException {
+        int k = segments - from;
+        MappedByteBuffer[] sources = new MappedByteBuffer[k];
+        long[] left = new long[k];
+        for (int i = 0; i < k; i++) {
+            sources[i] = channel.map(FileChannel.MapMode.READ_ONLY, offsets[from + i],
+                    counts[from + i] * PositionIndex.ENTRY_BYTES);
+            sources[i].order(ByteOrder.BIG_ENDIAN);
+            left[i] = counts[from + i];
+        }
+        while (true) {
+            // сегментов не больше MAX_SEGMENTS, поиск наименьшей записи перебором
+            int best = -1;
+            long bestHash = 0;
+            long bestValue = 0;
+            for (int i = 0; i < k; i++) {
+                if (left[i] == 0) continue;
+                long hash = sources[i].getLong(sources[i].position());
+                long value = sources[i].getLong(sources[i].position() + 8);
+                if (best < 0 || hash < bestHash || hash == bestHash && value < bestValue) {
+                    best = i;
+                    bestHash = hash;
+                    bestValue = value;
+                }
+            }
+            if (best < 0) break;
+            sources[best].position(sources[best].position() + PositionIndex.ENTRY_BYTES);
+            left[best]--;
+            if (out.remaining() < PositionIndex.ENTRY_BYTES) write(target);
+            out.putLong(bestHash).putLong(bestValue);
+        }
+        write(target);
+    }
+
+    // порядок записей: по хешу, затем по партии и ходу
+    private boolean less(int a, int b) {
+        if (hashes[a] != hashes[b]) return hashes[a] < hashes[b];
+        return values[a] < values[b];
+    }
+
+    private void swap(int a, int b) {
+        long hash = hashes[a];
+        hashes[a] = hashes[b];
+        hashes[b] = hash;
+        long value = values[a];
+        values[a] = values[b];
+        values[b] = value;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
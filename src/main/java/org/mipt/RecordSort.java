@@ -0,0 +1,62 @@
+package org.mipt;
+
+/**
+ * быстрая сортировка записей, разложенных по параллельным массивам (хеши, ходы, счетчики...):
+ * записи сравнивает и меняет местами вызывающий, поэтому массивы не копируются в объекты.
+ * опорная запись - медиана трех, меньшая часть сортируется рекурсивно, большая - в цикле,
+ * так что глубина рекурсии - логарифм; короткие куски досортировываются вставками
+ */
+final class RecordSort {
+    // кусок не длиннее - сортировка вставками
+    private static final int INSERTION = 16;
+
+    /**
+     * порядок записей
+     */
+    interface Less {
+        boolean less(int a, int b);
+    }
+
+    /**
+     * обмен двух записей во всех массивах
+     */
+    interface Swap {
+        void swap(int a, int b);
+    }
+
+    private RecordSort() {
+    }
+
+    /**
+     * сортирует записи с low по high включительно
+     */
+    static void sort(int low, int high, Less order, Swap records) {
+        while (high - low > INSERTION) {
+            int middle = (low + high) >>> 1;
+            if (order.less(middle, low)) records.swap(middle, low);
+            if (order.less(high, low)) records.swap(high, low);
+            if (order.less(high, middle)) records.swap(high, middle);
+            // опорная запись - в high - 1
+            records.swap(middle, high - 1);
+            int pivot = high - 1;
+            int i = low;
+            int j = high - 1;
+            while (true) {
+                do i++; while (order.less(i, pivot));
+                do j--; while (order.less(pivot, j));
+                if (i >= j) break;
+                records.swap(i, j);
+            }
+            records.swap(i, high - 1);
+            if (i - low < high - i) {
+                sort(low, i - 1, order, records);
+                low = i + 1;
+            } else {
+                sort(i + 1, high, order, records);
+                high = i - 1;
+            }
+        }
+        for (int i = low + 1; i <= high; i++)
+            for (int j = i; j > low && order.less(j, j - 1); j--) records.swap(j, j - 1);
+    }
+}
@@ -0,0 +1,208 @@
+package org.mipt;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * кеш общих начал партий: бор из строк партии, в узлах - копии поля после этих строк
+ * <p>
+ * первый уровень бора - две строки расстановки, каждый следующий - одна строка ходов (как ее разбирает
+ * Main.playLine), строки сравниваются целиком, как в файле. партия продолжается с самого длинного начала,
+ * которое есть в кеше, остальные строки разыгрываются. партия добавляет в кеш одно поле - на строку дальше
+ * найденного начала (не глубже depth строк ходов): общее начало удлиняется с каждой партией, а партия,
+ * которая ни с кем не совпадает, не вытесняет из кеша двадцать полей. поле после строки зависит только
+ * от строк до нее, поэтому результат тот же, что у Main.play. копии в кеше не меняются: партия получает
+ * свою копию.
+ * <p>
+ * полей в кеше не больше capacity, вытесняется поле, которое дольше всех не брали (LRU), узел без поля
+ * и без детей удаляется из бора. кеш общий для потоков пакетного режима: поиск и запись под блокировкой,
+ * розыгрыш ходов - вне ее
+ */
+final class ReplayCache {
+    static final int DEFAULT_CAPACITY = 100_000;
+    static final int DEFAULT_DEPTH = 20;
+    // оценка байт на узел: объект узла, запись HashMap родителя и строка-ключ без символов
+    private static final int NODE_BYTES = 56 + 48 + 40;
+    // оценка байт на поле: копия Battle есть только в узлах с полем
+    private static final int BATTLE_BYTES = 64;
+
+    private final int capacity;
+    private final int depth;
+    private final Node root = new Node(null, null);
+    // список LRU узлов с полем: head.after - последний взятый, head.before - самый старый
+    private final Node head = new Node(null, null);
+
+    private int snapshots;
+    private int nodes;
+    private long chars;
+    private long lookups;
+    private long hits;
+    private long lines;
+    private long skipped;
+    private long evictions;
+
+    /**
+     * @param capacity сколько полей хранить
+     * @param depth    после скольких строк ходов поля еще запоминаются
+     */
+    ReplayCache(int capacity, int depth) {
+        // хотя бы одно поле: только что записанное не вытесняется
+        this.capacity = Math.max(capacity, 1);
+        this.depth = depth;
+        head.before = head;
+        head.after = head;
+    }
+
+    /**
+     * кеш из аргумента --cache[=N], N - сколько полей хранить
+     *
+     * @param arg аргумент командной строки
+     * @return кеш
+     */
+    static ReplayCache create(String arg) {
+        int capacity = arg.startsWith("--cache=") ? Integer.parseInt(arg.substring("--cache=".length()))
+                : DEFAULT_CAPACITY;
+        return new ReplayCache(capacity, DEFAULT_DEPTH);
+    }
+
+    // узел бора
+    private static final class Node {
+        final Node parent;
+        final String line;
+        Map<String, Node> children;
+        // поле после строк от корня до узла или null
+        Main.Battle battle;
+        Node before;
+        Node after;
+
+        Node(Node parent, String line) {
+            this.parent = parent;
+            this.line = line;
+        }
+    }
+
+    /**
+     * разыгрывает партию, как Main.play, начиная с самого длинного начала из кеша
+     *
+     * @param list строки партии
+     * @return игровое поле после всех ходов
+     * @throws Main.WhiteSquareException если белая клетка
+     * @throws Main.CheckRuleException   если ошибка
+     */
+    Main.Battle play(List<? extends CharSequence> list) throws Main.WhiteSquareException, Main.CheckRuleException {
+        if (list.size() < 2) return Main.play(list);
+        // ключи: расстановка и строки ходов, для которых поле может быть в кеше
+        String[] keys = new String[Math.min(list.size() - 1, depth + 1)];
+        keys[0] = list.get(0) + "\n" + list.get(1);
+        for (int i = 1; i < keys.length; i++) keys[i] = list.get(i + 1).toString();
+
+        Main.Battle[] found = new Main.Battle[1];
+        int cached = find(keys, found);
+        Main.Battle battle = cached < 0 ? Main.setup(list) : found[0];
+        // новое поле - после ключа cached + 1
+        Main.Battle copy = cached < 0 ? new Main.Battle(battle) : null;
+        try {
+            for (int i = Math.max(cached, 0) + 1; i < list.size() - 1; i++) {
+                Main.playLine(battle, list.get(i + 1));
+                if (i == cached + 1 && i < keys.length) copy = new Main.Battle(battle);
+            }
+        } finally {
+            // поле до ошибки тоже верное
+            store(keys, cached + 1, copy, list.size() - 2, Math.max(cached, 0));
+        }
+        return battle;
+    }
+
+    /**
+     * самое длинное начало партии с полем в кеше
+     *
+     * @param keys  ключи партии
+     * @param found сюда кладется копия найденного поля
+     * @return номер последнего ключа начала или -1
+     */
+    private synchronized int find(String[] keys, Main.Battle[] found) {
+        lookups++;
+        Node node = root;
+        Node longest = null;
+        int index = -1;
+        for (int i = 0; i < keys.length && node.children != null; i++) {
+            node = node.children.get(keys[i]);
+            if (node == null) break;
+            if (node.battle == null) continue;
+            longest = node;
+            index = i;
+        }
+        if (longest == null) return -1;
+        hits++;
+        touch(longest);
+        found[0] = new Main.Battle(longest.battle);
+        return index;
+    }
+
+    // записывает поле copy после ключа index (если есть) и считает строки: total всего, skipped взято из кеша
+    private synchronized void store(String[] keys, int index, Main.Battle copy, int total, int skipped) {
+        lines += total;
+        this.skipped += skipped;
+        if (copy == null) return;
+        Node node = root;
+        for (int i = 0; i <= index; i++) {
+            Node child = node.children == null ? null : node.children.get(keys[i]);
+            if (child == null) {
+                if (node.children == null) node.children = new HashMap<>(4);
+                child = new Node(node, keys[i]);
+                node.children.put(keys[i], child);
+                nodes++;
+                chars += keys[i].length();
+            }
+            node = child;
+        }
+        // другой поток мог записать это поле раньше
+        if (node.battle != null) return;
+        node.battle = copy;
+        snapshots++;
+        touch(node);
+        if (snapshots > capacity) evict();
+    }
+
+    // узел - в начало списка LRU
+    private void touch(Node node) {
+        if (node.after != null) {
+            node.before.after = node.after;
+            node.after.before = node.before;
+        }
+        node.after = head.after;
+        node.before = head;
+        head.after.before = node;
+        head.after = node;
+    }
+
+    // убирает самое старое поле и узлы, которые стали не нужны
+    private void evict() {
+        Node node = head.before;
+        node.before.after = head;
+        head.before = node.before;
+        node.before = null;
+        node.after = null;
+        node.battle = null;
+        snapshots--;
+        evictions++;
+        while (node != root && node.battle == null && (node.children == null || node.children.isEmpty())) {
+            node.parent.children.remove(node.line);
+            nodes--;
+            chars -= node.line.length();
+            node = node.parent;
+        }
+    }
+
+    /**
+     * @return статистика: попадания, пропущенные строки ходов, размер и оценка памяти
+     */
+    synchronized String stats() {
+        return String.format("кеш начал: партий %d, с начала из кеша %d (%.1f%%), строк ходов %d,"
+                        + " пропущено %d (%.1f%%), полей %d, узлов %d, вытеснено %d, память ~%d КБ",
+                lookups, hits, lookups == 0 ? 0.0 : 100.0 * hits / lookups, lines, skipped,
+                lines == 0 ? 0.0 : 100.0 * skipped / lines, snapshots, nodes, evictions,
+                (nodes * (long) NODE_BYTES + snapshots * (long) BATTLE_BYTES + chars * 2) / 1024);
+    }
+}
@@ -0,0 +1,418 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * поиск лучшего хода: альфа-бета с итеративным углублением, ограничение по глубине или времени
+ * <p>
+ * java -jar Draughts.jar search &lt;файл партии&gt; [--depth=N] [--time=мс] [--hash=МБ] [--threads=N] [--speedup]
+ * [--tablebase=файл] [--book=файл] [--eval=tables|search]
+ * файл - как input.txt, позиция после всех ходов, ходит сторона, чья очередь.
+ * --threads - число потоков (LazySmp), --speedup - замер времени до глубины на 1..16 потоках,
+ * --book - дебютная книга (OpeningBook): если позиция в ней, ход берется из книги,
+ * --eval - оценка позиции Evaluator или evaluate (по умолчанию)
+ */
+final class Search {
+    // оценка выигрыша, из нее вычитается число полуходов до конца партии
+    static final int WIN = 100_000;
+    static final int INFINITY = WIN + 1;
+    // выигрыш по таблицам эндшпиля, к нему добавляется оценка позиции, чтобы выигрывающая сторона продвигалась
+    static final int TABLEBASE_WIN = WIN / 2;
+    static final int MAX_PLY = 128;
+
+    // стоимость простой шашки и дамки
+    static final int MAN = 100;
+    static final int KING = 300;
+
+    // время проверяется раз в столько позиций
+    private static final int CHECK_EVERY = 1023;
+
+    // размер таблицы транспозиций по умолчанию, МБ
+    static final int HASH_MB = 64;
+
+    private final TranspositionTable table;
+    // общий для всех потоков поиска сигнал остановки
+    private final AtomicBoolean abort;
+    // таблицы эндшпиля или null
+    private final Tablebase tablebase;
+    // оценка позиции по таблицам Evaluator вместо evaluate
+    private final boolean tables;
+
+    private final MoveList[] lists = new MoveList[MAX_PLY];
+    // оценки ходов для сортировки на каждом полуходе
+    private final int[][] order = new int[MAX_PLY][];
+    // два хода без взятия, вызвавших отсечение, на каждом полуходе
+    private final int[][] killers = new int[MAX_PLY][2];
+    // история отсечений по клеткам откуда и куда
+    private final int[][] history = new int[32][32];
+
+    private long nodes;
+    private long deadline;
+    private boolean stopped;
+    // лучший ход в корне: номер в списке и сам ход (список каждый раз генерируется заново)
+    private int rootBest;
+    private int rootMove;
+    private int rootCaptures;
+    private long rootPath;
+
+    Search() {
+        this(new TranspositionTable(HASH_MB));
+    }
+
+    /**
+     * @param table таблица транспозиций, может быть общей для нескольких поисков
+     */
+    Search(TranspositionTable table) {
+        this(table, new AtomicBoolean());
+    }
+
+    /**
+     * @param table таблица транспозиций, может быть общей для нескольких поисков
+     * @param abort поиск останавливается, как только флаг установлен
+     */
+    Search(TranspositionTable table, AtomicBoolean abort) {
+        this(table, abort, null);
+    }
+
+    /**
+     * @param table     таблица транспозиций, может быть общей для нескольких поисков
+     * @param abort     поиск останавливается, как только флаг установлен
+     * @param tablebase таблицы эндшпиля или null
+     */
+    Search(TranspositionTable table, AtomicBoolean abort, Tablebase tablebase) {
+        this(table, abort, tablebase, false);
+    }
+
+    /**
+     * @param table     таблица транспозиций, может быть общей для нескольких поисков
+     * @param abort     поиск останавливается, как только флаг установлен
+     * @param tablebase таблицы эндшпиля или null
+     * @param tables    true - оценка позиции Evaluator, false - evaluate
+     */
+    Search(TranspositionTable table, AtomicBoolean abort, Tablebase tablebase, boolean tables) {
+        this.table = table;
+        this.abort = abort;
+        this.tablebase = tablebase;
+        this.tables = tables;
+        for (int i = 0; i < MAX_PLY; i++) {
+            lists[i] = new MoveList();
+            order[i] = new int[lists[i].moves.length];
+        }
+    }
+
+    /**
+     * результат поиска
+     */
+    static final class Result {
+        // лучший ход в нотации Main.parse, null если ходов нет
+        String move;
+        // оценка с точки зрения стороны, которая ходит
+        int score;
+        // последняя полностью просчитанная глубина
+        int depth;
+        long nodes;
+        long nanos;
+        // ход из дебютной книги, поиска не было
+        boolean book;
+
+        long nodesPerSecond() {
+            return nodes * 1_000_000_000L / Math.max(nanos, 1);
+        }
+
+        @Override
+        public String toString() {
+            if (book) return "ход из дебютной книги: " + move;
+            return String.format("глубина %d: %s, оценка %d, %d позиций, %d мс, %d позиций/с",
+                    depth, move, score, nodes, nanos / 1_000_000, nodesPerSecond());
+        }
+    }
+
+    static void run(String[] args) {
+        int depth = MAX_PLY - 1;
+        long millis = 0;
+        int hash = HASH_MB;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean speedup = false;
+        String tablebase = null;
+        String book = null;
+        boolean tables = false;
+        String file = null;
+        for (String arg : args) {
+            if (arg.startsWith("--depth=")) depth = Integer.parseInt(arg.substring("--depth=".length()));
+            else if (arg.startsWith("--time=")) millis = Long.parseLong(arg.substring("--time=".length()));
+            else if (arg.startsWith("--hash=")) hash = Integer.parseInt(arg.substring("--hash=".length()));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.equals("--speedup")) speedup = true;
+            else if (arg.startsWith("--tablebase=")) tablebase = arg.substring("--tablebase=".length());
+            else if (arg.startsWith("--book=")) book = arg.substring("--book=".length());
+            else if (arg.equals("--eval=tables") || arg.equals("--eval=search")) tables = arg.equals("--eval=tables");
+            else file = arg;
+        }
+        // без ограничений думаем секунду
+        if (millis == 0 && depth == MAX_PLY - 1 && !speedup) millis = 1000;
+        try {
+            List<String> lines = Main.readFile(file == null ? "input.txt" : file);
+            Main.Battle battle = Main.play(lines);
+            if (speedup) {
+                LazySmp.speedup(battle, Main.sideToMove(lines), depth == MAX_PLY - 1 ? 12 : depth, hash, tables);
+                return;
+            }
+            TranspositionTable table = new TranspositionTable(hash);
+            Result result;
+            try (Tablebase endgame = tablebase == null ? null : Tablebase.open(Paths.get(tablebase));
+                 OpeningBook opening = book == null ? null : OpeningBook.open(Paths.get(book));
+                 LazySmp smp = new LazySmp(table, threads, endgame, opening, tables)) {
+                result = smp.search(battle, Main.sideToMove(lines), depth, millis, true);
+            }
+            if (result.book) return;
+            System.out.println("лучший ход " + result.move + ", оценка " + result.score);
+            System.out.printf("таблица транспозиций: %d попаданий, %d промахов (%.1f%%)%n",
+                    table.hits.sum(), table.misses.sum(), table.hitRate() * 100);
+        } catch (IOException | Main.WhiteSquareException | Main.CheckRuleException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    /**
+     * ищет лучший ход
+     *
+     * @param battle   позиция
+     * @param draught  чей ход
+     * @param maxDepth максимальная глубина
+     * @param millis   ограничение по времени, 0 - без ограничения
+     * @param print    печатать ли результат каждой итерации
+     * @return лучший ход и оценка последней завершенной итерации
+     */
+    Result search(Main.Battle battle, Main.DRAUGHT draught, int maxDepth, long millis, boolean print) {
+        boolean white = draught == Main.DRAUGHT.WHITE;
+        int own = white ? battle.white : battle.black;
+        int enemy = white ? battle.black : battle.white;
+        table.nextAge();
+        return search(own, enemy, battle.kings, white, hash(battle, white), 1, maxDepth, millis, print);
+    }
+
+    Result search(int own, int enemy, int kings, boolean white, int maxDepth, long millis, boolean print) {
+        table.nextAge();
+        return search(own, enemy, kings, white, hash(own, enemy, kings, white), 1, maxDepth, millis, print);
+    }
+
+    // хеш позиции вместе со стороной, которая ходит
+    static long hash(Main.Battle battle, boolean white) {
+        return battle.hash ^ (white ? 0 : Zobrist.SIDE);
+    }
+
+    static long hash(int own, int enemy, int kings, boolean white) {
+        return white ? Zobrist.hash(own, enemy, kings, true) : Zobrist.hash(enemy, own, kings, false);
+    }
+
+    /**
+     * итеративное углубление без смены поколения таблицы (ее меняет вызывающий)
+     *
+     * @param hash  хеш позиции
+     * @param first глубина первой итерации
+     */
+    Result search(int own, int enemy, int kings, boolean white, long hash, int first, int maxDepth, long millis,
+                  boolean print) {
+        long start = System.nanoTime();
+        deadline = millis > 0 ? start + millis * 1_000_000 : Long.MAX_VALUE;
+        stopped = false;
+        nodes = 0;
+        rootBest = -1;
+        for (int[] row : history) Arrays.fill(row, 0);
+
+        Result result = new Result();
+        // сумма по шашкам Evaluator дальше меняется ходами, с нуля считается только здесь
+        int pieces = tables ? (white ? Evaluator.pieces(own, enemy, kings) : Evaluator.pieces(enemy, own, kings)) : 0;
+        for (int depth = first; depth <= Math.min(maxDepth, MAX_PLY - 1); depth++) {
+            int score = search(own, enemy, kings, white, hash, pieces, depth, 0, -INFINITY, INFINITY);
+            if (stopped) break;
+            result.depth = depth;
+            result.score = score;
+            result.move = rootBest >= 0 ? lists[0].toString(rootBest) : null;
+            if (rootBest >= 0) {
+                rootMove = lists[0].moves[rootBest];
+                rootCaptures = lists[0].captures[rootBest];
+                rootPath = lists[0].paths[rootBest];
+            }
+            result.nodes = nodes;
+            result.nanos = System.nanoTime() - start;
+            if (print) System.out.println(result);
+            // выигрыш или проигрыш найден - глубже смотреть незачем
+            if (rootBest < 0 || Math.abs(score) > WIN - MAX_PLY) break;
+        }
+        result.nodes = nodes;
+        result.nanos = System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * альфа-бета (negamax)
+     *
+     * @param pieces сумма Evaluator.pieces позиции (с точки зрения белых), если оценка по таблицам
+     * @return оценка позиции с точки зрения стороны, которая ходит
+     */
+    private int search(int own, int enemy, int kings, boolean white, long hash, int pieces, int depth, int ply,
+                       int alpha, int beta) {
+        if ((++nodes & CHECK_EVERY) == 0 && (System.nanoTime() > deadline || abort.get())) stopped = true;
+        if (stopped) return 0;
+
+        // позиция уже просчитана не менее глубоко - берем оценку из таблицы
+        long entry = table.probe(hash);
+        int tableMove = TranspositionTable.move(entry);
+        if (entry != 0 && ply > 0 && TranspositionTable.depth(entry) >= Math.max(depth, 0)) {
+            int score = fromTable(TranspositionTable.score(entry), ply);
+            int bound = TranspositionTable.bound(entry);
+            if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta)
+                    || (bound == TranspositionTable.UPPER && score <= alpha)) return score;
+        }
+
+        // мало фигур - результат известен из таблиц
+        if (tablebase != null && ply > 0 && own != 0 && enemy != 0
+                && Integer.bitCount(own | enemy) <= tablebase.pieces) {
+            int value = tablebase.probe(own, enemy, kings, white);
+            if (value == Tablebase.DRAW) return 0;
+            if (value == Tablebase.WIN) return TABLEBASE_WIN - ply + score(own, enemy, kings, white, pieces);
+            if (value == Tablebase.LOSS) return -TABLEBASE_WIN + ply + score(own, enemy, kings, white, pieces);
+        }
+
+        MoveList list = lists[ply];
+        int size = MoveGenerator.generate(own, enemy, kings, white, list);
+        // нет ходов - проигрыш
+        if (size == 0) return -WIN + ply;
+        // взятия досчитываем до конца, чтобы не оценивать позицию посреди размена
+        boolean capture = list.captures[0] != 0;
+        if ((depth <= 0 && !capture) || ply == MAX_PLY - 1) return score(own, enemy, kings, white, pieces);
+
+        int[] scores = scoreMoves(list, ply, tableMove);
+        int original = alpha;
+        int best = -INFINITY;
+        int bestMove = 0;
+        for (int n = 0; n < size; n++) {
+            int i = pick(list, scores, n);
+            int move = list.moves[i];
+            int from = 1 << MoveList.from(move);
+            int to = 1 << MoveList.to(move);
+            int captured = list.captures[i];
+            // дамка может вернуться на ту же клетку, поэтому сначала снимаем, потом ставим
+            int next = (own & ~from) | to;
+            int nextKings = kings & ~captured;
+            if ((kings & from) != 0 || (move & MoveList.PROMOTION) != 0) nextKings = (nextKings & ~from) | to;
+
+            long nextHash = hash ^ Zobrist.move(white, move, captured, kings);
+            int nextPieces = tables ? pieces + Evaluator.move(white, move, captured, kings) : 0;
+            int score = -search(enemy & ~captured, next, nextKings, !white, nextHash, nextPieces, depth - 1,
+                    ply + 1, -beta, -alpha);
+            if (stopped) return 0;
+            if (score > best) {
+                best = score;
+                bestMove = move;
+                if (ply == 0) rootBest = i;
+            }
+            if (score > alpha) alpha = score;
+            if (alpha >= beta) {
+                if (captured == 0) {
+                    int key = move & 1023;
+                    if (killers[ply][0] != key) {
+                        killers[ply][1] = killers[ply][0];
+                        killers[ply][0] = key;
+                    }
+                    history[MoveList.from(move)][MoveList.to(move)] += depth * depth;
+                }
+                break;
+            }
+        }
+        int bound = best <= original ? TranspositionTable.UPPER
+                : best >= beta ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(hash, toTable(best, ply), depth, bound, bestMove);
+        return best;
+    }
+
+    // выигрыш в таблице считается от самой позиции, а не от корня
+    private static int toTable(int score, int ply) {
+        if (score > WIN - MAX_PLY) return score + ply;
+        if (score < -WIN + MAX_PLY) return score - ply;
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score > WIN - MAX_PLY) return score - ply;
+        if (score < -WIN + MAX_PLY) return score + ply;
+        return score;
+    }
+
+    // оценки ходов для сортировки: лучший ход прошлой итерации, ход из таблицы, больше взятых, киллеры, история
+    private int[] scoreMoves(MoveList list, int ply, int tableMove) {
+        if (order[ply].length < list.size) order[ply] = new int[list.moves.length];
+        int[] scores = order[ply];
+        for (int i = 0; i < list.size; i++) {
+            int move = list.moves[i];
+            int key = move & 1023;
+            int score = history[MoveList.from(move)][MoveList.to(move)];
+            if (tableMove != 0 && key == tableMove) score += 100_000_000;
+            if (list.captures[i] != 0) score += 1_000_000 * Integer.bitCount(list.captures[i]);
+            else if (key == killers[ply][0]) score += 500_000;
+            else if (key == killers[ply][1]) score += 400_000;
+            if ((move & MoveList.PROMOTION) != 0) score += 300_000;
+            scores[i] = score;
+        }
+        if (ply == 0 && rootBest >= 0) {
+            for (int i = 0; i < list.size; i++)
+                if (list.moves[i] == rootMove && list.captures[i] == rootCaptures && list.paths[i] == rootPath)
+                    scores[i] = Integer.MAX_VALUE;
+        }
+        return scores;
+    }
+
+    // выбирает ход с наибольшей оценкой среди оставшихся и ставит его на место n
+    private static int pick(MoveList list, int[] scores, int n) {
+        int best = n;
+        for (int i = n + 1; i < list.size; i++)
+            if (scores[i] > scores[best]) best = i;
+        if (best != n) {
+            swap(list.moves, best, n);
+            swap(list.captures, best, n);
+            swap(scores, best, n);
+            long path = list.paths[best];
+            list.paths[best] = list.paths[n];
+            list.paths[n] = path;
+        }
+        return n;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int value = array[i];
+        array[i] = array[j];
+        array[j] = value;
+    }
+
+    // оценка позиции, которую выбрал этот поиск; для Evaluator сумма по шашкам уже посчитана ходами
+    private int score(int own, int enemy, int kings, boolean white, int pieces) {
+        if (!tables) return evaluate(own, enemy, kings, white);
+        return white ? Evaluator.evaluate(pieces, own, enemy, kings) : -Evaluator.evaluate(pieces, enemy, own, kings);
+    }
+
+    /**
+     * оценка позиции: материал и продвижение простых шашек
+     *
+     * @return оценка с точки зрения стороны own
+     */
+    static int evaluate(int own, int enemy, int kings, boolean white) {
+        int score = MAN * (Integer.bitCount(own & ~kings) - Integer.bitCount(enemy & ~kings))
+                + KING * (Integer.bitCount(own & kings) - Integer.bitCount(enemy & kings));
+        return score + advance(own & ~kings, white) - advance(enemy & ~kings, !white);
+    }
+
+    // по 2 за каждую горизонталь, пройденную простыми шашками
+    private static int advance(int men, boolean white) {
+        int score = 0;
+        for (; men != 0; men &= men - 1) {
+            int rank = BitBoard.rank(Integer.numberOfTrailingZeros(men));
+            score += 2 * (white ? rank - 1 : 8 - rank);
+        }
+        return score;
+    }
+}
@@ -0,0 +1,89 @@
+package org.mipt;
+
+/**
+ * последовательный критерий отношения вероятностей (SPRT) для матча по счету побед, ничьих и поражений
+ * <p>
+ * H0 - разница в силе elo0, H1 - elo1 (логистическая модель: ожидаемый счет 1 / (1 + 10^(-elo / 400))).
+ * логарифм отношения правдоподобия - нормальное приближение по среднему счету партии и его дисперсии;
+ * LLR выше upper - принимается H1, ниже lower - H0, где границы задают ошибки alpha (принять H1, когда
+ * верна H0) и beta (наоборот)
+ */
+final class Sprt {
+    private final double elo0;
+    private final double elo1;
+    private final double lower;
+    private final double upper;
+
+    Sprt(double elo0, double elo1, double alpha, double beta) {
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        lower = Math.log(beta / (1 - alpha));
+        upper = Math.log((1 - beta) / alpha);
+    }
+
+    /**
+     * @return логарифм отношения правдоподобия H1 к H0, 0 пока дисперсия счета нулевая
+     */
+    double llr(int wins, int draws, int losses) {
+        int games = wins + draws + losses;
+        if (games == 0) return 0;
+        double mean = (wins + draws / 2.0) / games;
+        double variance = variance(wins, draws, losses, mean);
+        if (variance == 0) return 0;
+        double score0 = score(elo0);
+        double score1 = score(elo1);
+        return games * (score1 - score0) * (2 * mean - score0 - score1) / (2 * variance);
+    }
+
+    /**
+     * @return 1 - принята H1, -1 - принята H0, 0 - нужны еще партии
+     */
+    int decision(int wins, int draws, int losses) {
+        double llr = llr(wins, draws, losses);
+        return llr >= upper ? 1 : llr <= lower ? -1 : 0;
+    }
+
+    double lower() {
+        return lower;
+    }
+
+    double upper() {
+        return upper;
+    }
+
+    /**
+     * оценка разницы в силе по счету и 95% интервал
+     *
+     * @return например "+12.3 ± 8.0"
+     */
+    static String elo(int wins, int draws, int losses) {
+        int games = wins + draws + losses;
+        if (games == 0) return "-";
+        double mean = (wins + draws / 2.0) / games;
+        double margin = 1.96 * Math.sqrt(variance(wins, draws, losses, mean) / games);
+        double elo = elo(mean);
+        return String.format("%+.1f ± %.1f", elo, (elo(mean + margin) - elo(mean - margin)) / 2);
+    }
+
+    // разница в силе при среднем счете score, при счете 0 и 1 - конечная граница; + 0.0 - чтобы не печатать -0.0
+    private static double elo(double score) {
+        score = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400 * Math.log10(1 / score - 1) + 0.0;
+    }
+
+    // ожидаемый счет при разнице в силе elo
+    private static double score(double elo) {
+        return 1 / (1 + Math.pow(10, -elo / 400));
+    }
+
+    // дисперсия счета одной партии
+    private static double variance(int wins, int draws, int losses, double mean) {
+        int games = wins + draws + losses;
+        return (wins * (1 - mean) * (1 - mean) + draws * (0.5 - mean) * (0.5 - mean) + losses * mean * mean) / games;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SPRT elo0 %.1f, elo1 %.1f, границы LLR [%.2f, %.2f]", elo0, elo1, lower, upper);
+    }
+}
@@ -0,0 +1,215 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * таблицы эндшпиля: выигрыш, проигрыш или ничья для стороны, которая ходит
+ * <p>
+ * позиции хранятся только с ходом белых (шашки ходящего идут вверх), позиция с ходом черных
+ * поворачивается на 180 градусов: клетка s становится 31 - s, цвета меняются местами.
+ * таблица - все позиции с одним составом (простые и дамки каждой стороны), по 2 бита на позицию.
+ * <p>
+ * файл: заголовок (MAGIC, число фигур, число таблиц), оглавление (состав - 4 байта,
+ * смещение и число позиций - по 8 байт), затем данные таблиц. таблицы отображаются в память
+ * через MappedByteBuffer, поэтому открываются сразу и страницы общие для всех процессов
+ */
+final class Tablebase implements Closeable {
+    // результат для стороны, которая ходит
+    static final int DRAW = 0;
+    static final int WIN = 1;
+    static final int LOSS = 2;
+    // позиции нет в таблицах
+    static final int UNKNOWN = -1;
+    // в файле: клетки фигур пересекаются, такой позиции не бывает
+    static final int INVALID = 3;
+
+    static final int MAGIC = 0x44544231;
+    // таблицы строятся до 6 фигур: в составах из 7 фигур (2+2 против 2+1) больше Integer.MAX_VALUE позиций,
+    // генератору не хватит индексов массивов
+    static final int MAX_PIECES = 6;
+    static final int ENTRY_BYTES = 4 + 8 + 8;
+
+    // простые не стоят на последней для себя горизонтали, им остается 28 клеток
+    static final int MEN_SQUARES = 28;
+
+    // биномиальные коэффициенты C(n, k)
+    private static final long[][] BINOMIAL = new long[33][MAX_PIECES + 1];
+
+    static {
+        for (int n = 0; n <= 32; n++) {
+            BINOMIAL[n][0] = 1;
+            for (int k = 1; k <= Math.min(n, MAX_PIECES); k++)
+                BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + (k <= n - 1 ? BINOMIAL[n - 1][k] : 0);
+        }
+    }
+
+    // наибольшее число фигур в позициях таблиц
+    final int pieces;
+    private final FileChannel channel;
+    // таблицы по составу, null если такой таблицы нет
+    private final ByteBuffer[] tables = new ByteBuffer[signatures()];
+
+    private Tablebase(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(12);
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() < 12 || header.getInt() != MAGIC) throw new IOException("не таблицы эндшпиля");
+        pieces = header.getInt();
+        int count = header.getInt();
+        ByteBuffer entries = ByteBuffer.allocate(count * ENTRY_BYTES);
+        channel.read(entries, 12);
+        entries.flip();
+        for (int i = 0; i < count; i++) {
+            int signature = signature(entries.get(), entries.get(), entries.get(), entries.get());
+            long offset = entries.getLong();
+            long positions = entries.getLong();
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes(positions));
+            tables[signature] = table;
+        }
+    }
+
+    /**
+     * открывает файл таблиц
+     *
+     * @param file файл, созданный TablebaseGenerator
+     * @return таблицы
+     * @throws IOException если файл не читается или это не таблицы
+     */
+    static Tablebase open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new Tablebase(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * результат позиции на поле battle
+     *
+     * @return WIN, LOSS, DRAW для стороны draught или UNKNOWN
+     */
+    int probe(Main.Battle battle, Main.DRAUGHT draught) {
+        boolean white = draught == Main.DRAUGHT.WHITE;
+        return probe(white ? battle.white : battle.black, white ? battle.black : battle.white, battle.kings, white);
+    }
+
+    /**
+     * результат позиции по маскам
+     *
+     * @param own   шашки стороны, которая ходит
+     * @param enemy шашки противника
+     * @param kings дамки
+     * @param white ходят белые
+     * @return WIN, LOSS, DRAW для стороны, которая ходит, или UNKNOWN
+     */
+    int probe(int own, int enemy, int kings, boolean white) {
+        if (own == 0) return LOSS;
+        if (enemy == 0) return WIN;
+        if (Integer.bitCount(own | enemy) > pieces) return UNKNOWN;
+        if (!white) {
+            own = Integer.reverse(own);
+            enemy = Integer.reverse(enemy);
+            kings = Integer.reverse(kings);
+        }
+        int ownMen = own & ~kings;
+        int enemyMen = enemy & ~kings;
+        // простая на последней горизонтали - не позиция из партии
+        if ((ownMen & BitBoard.RANK_8) != 0 || (enemyMen & BitBoard.RANK_1) != 0) return UNKNOWN;
+        ByteBuffer table = tables[signatureOf(ownMen, own & kings, enemyMen, enemy & kings)];
+        if (table == null) return UNKNOWN;
+        int value = get(table, index(ownMen, own & kings, enemyMen, enemy & kings));
+        return value == INVALID ? UNKNOWN : value;
+    }
+
+    // значение позиции index в упакованной таблице
+    static int get(ByteBuffer table, long index) {
+        return (table.get((int) (index >>> 2)) >>> ((index & 3) * 2)) & 3;
+    }
+
+    // байт на таблицу из positions позиций
+    static int bytes(long positions) {
+        return (int) ((positions + 3) / 4);
+    }
+
+    static int signatures() {
+        return (MAX_PIECES + 1) * (MAX_PIECES + 1) * (MAX_PIECES + 1) * (MAX_PIECES + 1);
+    }
+
+    // номер состава по числу простых и дамок каждой стороны
+    static int signature(int ownMen, int ownKings, int enemyMen, int enemyKings) {
+        return ((ownMen * (MAX_PIECES + 1) + ownKings) * (MAX_PIECES + 1) + enemyMen) * (MAX_PIECES + 1) + enemyKings;
+    }
+
+    // номер состава позиции по маскам
+    static int signatureOf(int ownMen, int ownKings, int enemyMen, int enemyKings) {
+        return signature(Integer.bitCount(ownMen), Integer.bitCount(ownKings),
+                Integer.bitCount(enemyMen), Integer.bitCount(enemyKings));
+    }
+
+    // число позиций в таблице состава
+    static long size(int ownMen, int ownKings, int enemyMen, int enemyKings) {
+        return BINOMIAL[MEN_SQUARES][ownMen] * BINOMIAL[MEN_SQUARES][enemyMen]
+                * BINOMIAL[32][ownKings] * BINOMIAL[32][enemyKings];
+    }
+
+    /**
+     * номер позиции в таблице ее состава: номера сочетаний клеток каждого вида фигур
+     */
+    static long index(int ownMen, int ownKings, int enemyMen, int enemyKings) {
+        long index = rank(ownMen);
+        index = index * BINOMIAL[MEN_SQUARES][Integer.bitCount(enemyMen)] + rank(enemyMen >>> 4);
+        index = index * BINOMIAL[32][Integer.bitCount(ownKings)] + rank(ownKings);
+        return index * BINOMIAL[32][Integer.bitCount(enemyKings)] + rank(enemyKings);
+    }
+
+    /**
+     * обратное к index: маски фигур позиции
+     *
+     * @param counts число простых и дамок своих и чужих
+     * @param masks  сюда пишутся маски в том же порядке
+     */
+    static void unindex(long index, int[] counts, int[] masks) {
+        long kings = BINOMIAL[32][counts[3]];
+        masks[3] = unrank(index % kings, counts[3], 32);
+        index /= kings;
+        kings = BINOMIAL[32][counts[1]];
+        masks[1] = unrank(index % kings, counts[1], 32);
+        index /= kings;
+        long men = BINOMIAL[MEN_SQUARES][counts[2]];
+        masks[2] = unrank(index % men, counts[2], MEN_SQUARES) << 4;
+        masks[0] = unrank(index / men, counts[0], MEN_SQUARES);
+    }
+
+    // номер сочетания клеток маски (колексикографический)
+    private static long rank(int mask) {
+        long rank = 0;
+        for (int k = 1; mask != 0; mask &= mask - 1, k++) rank += BINOMIAL[Integer.numberOfTrailingZeros(mask)][k];
+        return rank;
+    }
+
+    // сочетание из count клеток среди первых squares по номеру
+    private static int unrank(long rank, int count, int squares) {
+        int mask = 0;
+        int square = squares;
+        for (int k = count; k > 0; k--) {
+            do square--; while (BINOMIAL[square][k] > rank);
+            rank -= BINOMIAL[square][k];
+            mask |= 1 << square;
+        }
+        return mask;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,350 @@
+package org.mipt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * строит таблицы эндшпиля до N фигур обратным анализом
+ * <p>
+ * java -jar Draughts.jar tablebase N [файл]
+ * <p>
+ * составы строятся от меньшего числа фигур к большему, при равном - от меньшего числа простых:
+ * взятие уменьшает число фигур, превращение - число простых, поэтому такие ходы ведут в готовые таблицы.
+ * тихий ход ведет в таблицу с переставленными сторонами, она строится вместе с текущей.
+ * один проход вперед (параллельно) решает позиции, где ходов нет или все ходы ведут в готовые таблицы,
+ * и для остальных считает нерешенные ходы. дальше обратный анализ: от каждой решенной позиции ходы назад
+ * (MoveGenerator не нужен) к позициям пары - проигрыш после хода дает выигрыш, выигрыш уменьшает
+ * счетчик, ноль - проигрыш. каждая позиция разбирается назад один раз, что не решилось - ничья.
+ * ходы - из MoveGenerator: бить обязательно, простая бьет назад, дамка дальнобойная
+ */
+final class TablebaseGenerator {
+    // значение еще не известно (в готовой таблице это ничья)
+    private static final byte UNKNOWN = Tablebase.DRAW;
+    // позиций в куске таблицы, который проходит один поток
+    private static final int CHUNK = 1 << 16;
+
+    private final int pieces;
+    // готовые таблицы по составу, по 2 бита на позицию
+    private final ByteBuffer[] tables = new ByteBuffer[Tablebase.signatures()];
+    // таблицы, которые строятся сейчас
+    private final Table[] building = new Table[Tablebase.signatures()];
+    // составы в порядке построения
+    private final List<int[]> order = new ArrayList<>();
+
+    TablebaseGenerator(int pieces) {
+        if (pieces < 2 || pieces > Tablebase.MAX_PIECES)
+            throw new IllegalArgumentException("число фигур от 2 до " + Tablebase.MAX_PIECES);
+        this.pieces = pieces;
+    }
+
+    static void run(String[] args) {
+        int pieces;
+        try {
+            pieces = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        } catch (NumberFormatException e) {
+            pieces = 0;
+        }
+        if (pieces < 2 || pieces > Tablebase.MAX_PIECES) {
+            System.out.println("tablebase N [файл], число фигур N от 2 до " + Tablebase.MAX_PIECES);
+            return;
+        }
+        Path file = Paths.get(args.length > 1 ? args[1] : "tablebase.bin");
+        try {
+            TablebaseGenerator generator = new TablebaseGenerator(pieces);
+            long start = System.nanoTime();
+            generator.build(true);
+            generator.write(file);
+            System.out.printf("таблицы до %d фигур: %d составов, %d мс, %s%n", pieces, generator.order.size(),
+                    (System.nanoTime() - start) / 1_000_000, file);
+        } catch (IOException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    /**
+     * строит все таблицы
+     *
+     * @param print печатать ли итог каждого состава
+     */
+    void build(boolean print) {
+        for (int total = 2; total <= pieces; total++) {
+            for (int men = 0; men <= total; men++) {
+                for (int ownMen = 0; ownMen <= men; ownMen++) {
+                    int enemyMen = men - ownMen;
+                    for (int ownKings = 0; ownKings <= total - men; ownKings++) {
+                        int enemyKings = total - men - ownKings;
+                        if (ownMen + ownKings == 0 || enemyMen + enemyKings == 0) continue;
+                        if (tables[Tablebase.signature(ownMen, ownKings, enemyMen, enemyKings)] != null) continue;
+                        solve(ownMen, ownKings, enemyMen, enemyKings, print);
+                    }
+                }
+            }
+        }
+    }
+
+    // строит состав и состав с переставленными сторонами
+    private void solve(int ownMen, int ownKings, int enemyMen, int enemyKings, boolean print) {
+        int[][] pair = {{ownMen, ownKings, enemyMen, enemyKings}, {enemyMen, enemyKings, ownMen, ownKings}};
+        int count = pair[0][0] == pair[1][0] && pair[0][1] == pair[1][1] ? 1 : 2;
+        Table[] solving = new Table[count];
+        for (int t = 0; t < count; t++) {
+            int[] counts = pair[t];
+            solving[t] = new Table(counts);
+            building[Tablebase.signature(counts[0], counts[1], counts[2], counts[3])] = solving[t];
+        }
+
+        // ходы из каждой позиции - один раз, параллельно по кускам таблиц
+        for (Table table : solving) initialize(table);
+        // решенные позиции - в стек, от них назад к позициям, из которых в них есть тихий ход
+        Stack stack = new Stack();
+        for (int t = 0; t < count; t++) {
+            byte[] values = solving[t].values;
+            for (int index = 0; index < values.length; index++)
+                if (values[index] == Tablebase.WIN || values[index] == Tablebase.LOSS) stack.push(t, index);
+        }
+        int[] masks = new int[4];
+        while (stack.size > 0) {
+            int index = stack.pop();
+            Table table = solving[stack.table];
+            Tablebase.unindex(index, table.counts, masks);
+            retract(masks[0] | masks[1], masks[2] | masks[3], masks[1] | masks[3], table.values[index], stack,
+                    count == 1 ? 0 : 1 - stack.table);
+        }
+
+        for (int t = 0; t < count; t++) {
+            int[] counts = pair[t];
+            int signature = Tablebase.signature(counts[0], counts[1], counts[2], counts[3]);
+            byte[] values = solving[t].values;
+            building[signature] = null;
+            tables[signature] = pack(values);
+            order.add(counts);
+            if (print) {
+                int[] results = new int[4];
+                for (byte value : values) results[value]++;
+                System.out.printf("%d+%d против %d+%d: %d позиций, выигрыш %d, проигрыш %d, ничья %d%n",
+                        counts[0], counts[1], counts[2], counts[3], values.length - results[Tablebase.INVALID],
+                        results[Tablebase.WIN], results[Tablebase.LOSS], results[Tablebase.DRAW]);
+            }
+        }
+    }
+
+    // строящаяся таблица: результат и число нерешенных ходов каждой позиции
+    private static final class Table {
+        final int[] counts;
+        final byte[] values;
+        // ходы в нерешенные позиции этой пары и в ничьи готовых таблиц; 0 у решенных
+        final byte[] unresolved;
+
+        Table(int[] counts) {
+            long size = Tablebase.size(counts[0], counts[1], counts[2], counts[3]);
+            // до MAX_PIECES фигур не бывает
+            if (size > Integer.MAX_VALUE) throw new IllegalStateException("слишком большая таблица");
+            this.counts = counts;
+            values = new byte[(int) size];
+            unresolved = new byte[(int) size];
+        }
+    }
+
+    // стек позиций (номер таблицы пары и номер позиции), которые решились и еще не разобраны назад
+    private static final class Stack {
+        private int[] indices = new int[1024];
+        private byte[] tables = new byte[1024];
+        int size;
+        // таблица последней снятой позиции
+        int table;
+
+        void push(int table, int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, size * 2);
+                tables = Arrays.copyOf(tables, size * 2);
+            }
+            tables[size] = (byte) table;
+            indices[size++] = index;
+        }
+
+        int pop() {
+            size--;
+            table = tables[size];
+            return indices[size];
+        }
+    }
+
+    /**
+     * первый и единственный проход вперед: для каждой позиции таблицы ходы из MoveGenerator.
+     * взятие и превращение ведут в готовые таблицы: ход в проигрыш противника - выигрыш, ход в ничью
+     * считается нерешенным навсегда. тихий ход - в таблицу пары, он нерешенный, пока та позиция не решится.
+     * нет ходов или все ведут в выигрыш противника - проигрыш
+     */
+    private void initialize(Table table) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunks = Math.max(1, Math.min(threads * 8, table.values.length / CHUNK + 1));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int chunk = 0; chunk < chunks; chunk++) {
+                int from = (int) ((long) table.values.length * chunk / chunks);
+                int to = (int) ((long) table.values.length * (chunk + 1) / chunks);
+                tasks.add(pool.submit(() -> initialize(table, from, to)));
+            }
+            for (Future<?> task : tasks) task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private void initialize(Table table, int from, int to) {
+        MoveList list = new MoveList();
+        int[] masks = new int[4];
+        int pieces = table.counts[0] + table.counts[1] + table.counts[2] + table.counts[3];
+        for (int index = from; index < to; index++) {
+            Tablebase.unindex(index, table.counts, masks);
+            int own = masks[0] | masks[1];
+            int enemy = masks[2] | masks[3];
+            int kings = masks[1] | masks[3];
+            // клетки фигур пересекаются
+            if (Integer.bitCount(own | enemy) != pieces) {
+                table.values[index] = Tablebase.INVALID;
+                continue;
+            }
+            int size = MoveGenerator.generate(own, enemy, kings, true, list);
+            int unresolved = 0;
+            int value = UNKNOWN;
+            for (int i = 0; i < size && value == UNKNOWN; i++) {
+                int move = list.moves[i];
+                int captured = list.captures[i];
+                if (captured == 0 && (move & MoveList.PROMOTION) == 0) {
+                    unresolved++;
+                    continue;
+                }
+                int moved = 1 << MoveList.from(move);
+                int next = (own & ~moved) | (1 << MoveList.to(move));
+                int nextKings = kings & ~captured;
+                if ((kings & moved) != 0 || (move & MoveList.PROMOTION) != 0)
+                    nextKings = (nextKings & ~moved) | (1 << MoveList.to(move));
+                // позиция противника, повернутая так, чтобы он ходил вверх
+                int result = solved(Integer.reverse(enemy & ~captured), Integer.reverse(next),
+                        Integer.reverse(nextKings));
+                if (result == Tablebase.LOSS) value = Tablebase.WIN;
+                else if (result == Tablebase.DRAW) unresolved++;
+            }
+            if (value == UNKNOWN && unresolved == 0) value = Tablebase.LOSS;
+            table.values[index] = (byte) value;
+            if (value == UNKNOWN) table.unresolved[index] = (byte) unresolved;
+        }
+    }
+
+    /**
+     * ходы назад из решенной позиции: противник (он ходит вниз) только что сделал тихий ход на клетку to.
+     * позиция до хода - в таблице partner, повернутая так, чтобы он ходил вверх. проигрыш после хода - ее
+     * выигрыш, выигрыш после хода - на один нерешенный ход меньше, ни одного - проигрыш
+     *
+     * @param value результат позиции own, enemy, kings
+     */
+    private void retract(int own, int enemy, int kings, int value, Stack stack, int partner) {
+        int empty = ~(own | enemy);
+        for (int pieces = enemy; pieces != 0; pieces &= pieces - 1) {
+            int to = Integer.numberOfTrailingZeros(pieces);
+            if ((kings & (1 << to)) != 0) {
+                for (int direction = 0; direction < 4; direction++) {
+                    for (int from : BitBoard.ray(to, direction)) {
+                        if ((empty & (1 << from)) == 0) break;
+                        predecessor(own, enemy, kings, from, to, value, stack, partner);
+                    }
+                }
+            } else {
+                // простая противника ходит вниз, значит пришла сверху
+                for (int direction = BitBoard.UP_LEFT; direction <= BitBoard.UP_RIGHT; direction++) {
+                    int from = BitBoard.step(to, direction);
+                    if (from >= 0 && (empty & (1 << from)) != 0)
+                        predecessor(own, enemy, kings, from, to, value, stack, partner);
+                }
+            }
+        }
+    }
+
+    private void predecessor(int own, int enemy, int kings, int from, int to, int value, Stack stack, int partner) {
+        int moved = (1 << from) | (1 << to);
+        int before = Integer.reverse(enemy ^ moved);
+        int beforeKings = Integer.reverse((kings & (1 << to)) != 0 ? kings ^ moved : kings);
+        int other = Integer.reverse(own);
+        // при взятии тихие ходы не разрешены
+        if (MoveGenerator.hasCapture(before, other, beforeKings)) return;
+        int beforeMen = before & ~beforeKings;
+        int otherMen = other & ~beforeKings;
+        Table table = building[Tablebase.signatureOf(beforeMen, before & beforeKings, otherMen, other & beforeKings)];
+        int index = (int) Tablebase.index(beforeMen, before & beforeKings, otherMen, other & beforeKings);
+        if (table.values[index] != UNKNOWN || table.unresolved[index] == 0) return;
+        if (value == Tablebase.LOSS) {
+            table.values[index] = Tablebase.WIN;
+        } else if (--table.unresolved[index] == 0) {
+            table.values[index] = Tablebase.LOSS;
+        } else {
+            return;
+        }
+        table.unresolved[index] = 0;
+        stack.push(partner, index);
+    }
+
+    // результат позиции с ходом белых из готовой таблицы
+    private int solved(int own, int enemy, int kings) {
+        if (own == 0) return Tablebase.LOSS;
+        int ownMen = own & ~kings;
+        int enemyMen = enemy & ~kings;
+        return Tablebase.get(tables[Tablebase.signatureOf(ownMen, own & kings, enemyMen, enemy & kings)],
+                Tablebase.index(ownMen, own & kings, enemyMen, enemy & kings));
+    }
+
+    // по 2 бита на позицию, 4 позиции в байте
+    private static ByteBuffer pack(byte[] values) {
+        ByteBuffer table = ByteBuffer.allocate(Tablebase.bytes(values.length));
+        for (int index = 0; index < values.length; index++) {
+            int offset = index >>> 2;
+            table.put(offset, (byte) (table.get(offset) | values[index] << ((index & 3) * 2)));
+        }
+        return table;
+    }
+
+    /**
+     * записывает таблицы в файл: заголовок, оглавление, данные
+     *
+     * @param file файл таблиц
+     * @throws IOException если ошибка записи
+     */
+    void write(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(12 + order.size() * Tablebase.ENTRY_BYTES);
+            header.putInt(Tablebase.MAGIC).putInt(pieces).putInt(order.size());
+            long offset = header.capacity();
+            for (int[] counts : order) {
+                for (int count : counts) header.put((byte) count);
+                long positions = Tablebase.size(counts[0], counts[1], counts[2], counts[3]);
+                header.putLong(offset).putLong(positions);
+                offset += Tablebase.bytes(positions);
+            }
+            header.flip();
+            while (header.hasRemaining()) channel.write(header);
+            for (int[] counts : order) {
+                ByteBuffer table = tables[Tablebase.signature(counts[0], counts[1], counts[2], counts[3])].duplicate();
+                table.clear();
+                while (table.hasRemaining()) channel.write(table);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.mipt;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * таблица транспозиций на массиве long[] без блокировок
+ * <p>
+ * запись - два long: (хеш xor данные) и данные. если другой поток записал только половину,
+ * хеш не сойдется и запись будет считаться промахом. записи в корзинах по две:
+ * первая заменяется только более глубокой (или из прошлого поиска), вторая - всегда
+ */
+final class TranspositionTable {
+    // тип оценки
+    static final int EXACT = 0;
+    static final int LOWER = 1;
+    static final int UPPER = 2;
+
+    // данные: оценка (32 бита) | глубина (8) | тип (2) | ход откуда-куда (10) | поколение (8)
+    private static final int DEPTH_SHIFT = 32;
+    private static final int BOUND_SHIFT = 40;
+    private static final int MOVE_SHIFT = 42;
+    private static final int AGE_SHIFT = 52;
+
+    private final long[] table;
+    // номер корзины - младшие биты хеша
+    private final int mask;
+    private volatile int age;
+
+    final LongAdder hits = new LongAdder();
+    final LongAdder misses = new LongAdder();
+
+    /**
+     * @param megabytes размер в мегабайтах, округляется вниз до степени двойки
+     */
+    TranspositionTable(int megabytes) {
+        long entries = Math.max(2, (long) megabytes * 1024 * 1024 / 16);
+        int buckets = (int) Math.min(Long.highestOneBit(entries / 2), 1 << 26);
+        table = new long[buckets * 4];
+        mask = buckets - 1;
+    }
+
+    // новый поиск: старые записи заменяются в первую очередь
+    void nextAge() {
+        age = (age + 1) & 0xFF;
+    }
+
+    /**
+     * ищет запись
+     *
+     * @return данные записи или 0, если не найдена
+     */
+    long probe(long hash) {
+        int index = ((int) hash & mask) * 4;
+        for (int i = index; i < index + 4; i += 2) {
+            long data = table[i + 1];
+            if ((table[i] ^ data) == hash && data != 0) {
+                hits.increment();
+                return data;
+            }
+        }
+        misses.increment();
+        return 0;
+    }
+
+    /**
+     * сохраняет оценку позиции
+     *
+     * @param hash  хеш позиции
+     * @param score оценка
+     * @param depth глубина
+     * @param bound EXACT, LOWER или UPPER
+     * @param move  лучший ход (откуда | куда << 5) или 0
+     */
+    void store(long hash, int score, int depth, int bound, int move) {
+        int index = ((int) hash & mask) * 4;
+        long data = (score & 0xFFFFFFFFL) | (long) Math.max(depth, 0) << DEPTH_SHIFT
+                | (long) bound << BOUND_SHIFT | (long) (move & 1023) << MOVE_SHIFT | (long) age << AGE_SHIFT;
+        long old = table[index + 1];
+        boolean same = (table[index] ^ old) == hash;
+        if (same || depth(old) <= depth || age(old) != age) {
+            // ход из старой записи той же позиции не теряем
+            if (same && (move & 1023) == 0) data |= old & (1023L << MOVE_SHIFT);
+            table[index] = hash ^ data;
+            table[index + 1] = data;
+        } else {
+            table[index + 2] = hash ^ data;
+            table[index + 3] = data;
+        }
+    }
+
+    static int score(long data) {
+        return (int) data;
+    }
+
+    static int depth(long data) {
+        return (int) (data >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    static int bound(long data) {
+        return (int) (data >>> BOUND_SHIFT) & 3;
+    }
+
+    static int move(long data) {
+        return (int) (data >>> MOVE_SHIFT) & 1023;
+    }
+
+    static int age(long data) {
+        return (int) (data >>> AGE_SHIFT) & 0xFF;
+    }
+
+    // доля попаданий
+    double hitRate() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+}
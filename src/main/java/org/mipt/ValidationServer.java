@@ -0,0 +1,422 @@
+package org.mipt;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * сервер проверки партий: одна JVM принимает партии по TCP вместо запуска Main на каждый файл
+ * <p>
+ * протокол - как файлы пакетного режима: клиент шлет партии в формате input.txt через строку
+ * Main.GAME_DELIMITER, сервер на каждую партию отвечает результатом Main.validate и разделителем,
+ * в том же порядке. клиент может слать партии, не дожидаясь ответов (конвейер); когда клиент закрывает
+ * свою сторону соединения, последняя партия без разделителя тоже проверяется, и после ответов сервер
+ * закрывает соединение.
+ * <p>
+ * сетью занимается один поток с Selector: он режет входящие байты на партии, складывает их в пачки
+ * по BATCH партий и отдает пачки пулу потоков с ограниченной очередью. ответы пишутся по порядку,
+ * как только готова первая пачка соединения. у соединения не больше MAX_QUEUED пачек в работе
+ * и не больше OUTPUT_LIMIT байт неотправленных ответов - иначе сервер перестает читать из него,
+ * пока очередь не освободится, и клиент упирается в TCP окно.
+ * строка длиннее MAX_LINE байт или партия больше MAX_LINES строк - ошибка протокола: вместо этой партии
+ * сервер отвечает ошибкой, больше из соединения не читает и закрывает его после ответов на прежние партии
+ * <p>
+ * java -jar Draughts.jar serve [--port=N] [--threads=N] [--queue=N] [--tablebase=файл] [--metrics[=секунды]]
+ * <br>
+ * java -jar Draughts.jar client &lt;файл с партиями&gt; [файл результатов] [--host=адрес] [--port=N]
+ */
+final class ValidationServer implements Closeable {
+    static final int DEFAULT_PORT = 7777;
+    // партий в одной задаче пула
+    static final int BATCH = 64;
+    // пачек одного соединения в работе, после этого соединение не читается
+    static final int MAX_QUEUED = 16;
+    // неотправленных байт ответов одного соединения, после этого соединение не читается
+    static final int OUTPUT_LIMIT = 1 << 20;
+    private static final int READ_BUFFER = 64 * 1024;
+    // самая длинная строка: входной буфер соединения не растет
+    static final int MAX_LINE = READ_BUFFER;
+    // строк в одной партии
+    static final int MAX_LINES = 10_000;
+    private static final byte[] DELIMITER = ("\r\n" + Main.GAME_DELIMITER + "\r\n").getBytes(StandardCharsets.UTF_8);
+
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final ThreadPoolExecutor workers;
+    private final Tablebase tablebase;
+    // пачек в пуле (в работе и в очереди), не больше maxBatches
+    private final int maxBatches;
+    private int inFlight;
+    // пачки, ждущие места в пуле, в порядке поступления
+    private final Deque<Batch> ready = new ArrayDeque<>();
+    // пачки, проверенные пулом; разбирает поток Selector
+    private final ConcurrentLinkedQueue<Batch> done = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param port      порт, 0 - любой свободный
+     * @param threads   потоков проверки
+     * @param queue     пачек в очереди пула сверх числа потоков
+     * @param tablebase таблицы эндшпиля или null
+     * @throws IOException если не удалось открыть порт
+     */
+    ValidationServer(int port, int threads, int queue, Tablebase tablebase) throws IOException {
+        this.tablebase = tablebase;
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+        int size = Math.max(threads, 1);
+        int capacity = Math.max(queue, 1);
+        maxBatches = size + capacity;
+        // пачка попадает в done чуть раньше, чем освобождается ее поток, поэтому в очереди пула
+        // запас на число потоков: сверх maxBatches пачек в пул все равно не отдается
+        workers = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity + size),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "validate");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    static void serve(String[] args) {
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int queue = 4 * threads;
+        String tablebase = null;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring("--port=".length()));
+            else if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.startsWith("--queue=")) queue = Integer.parseInt(arg.substring("--queue=".length()));
+            else if (arg.startsWith("--tablebase=")) tablebase = arg.substring("--tablebase=".length());
+            else if (arg.startsWith("--metrics")) Metrics.report(arg);
+        }
+        try (Tablebase tables = tablebase == null ? null : Tablebase.open(Paths.get(tablebase));
+             ValidationServer server = new ValidationServer(port, threads, queue, tables)) {
+            System.out.println("сервер на порту " + server.port());
+            server.run();
+        } catch (IOException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        }
+    }
+
+    /**
+     * порт, на котором сервер принимает соединения
+     *
+     * @return порт
+     * @throws IOException если ошибка сокета
+     */
+    int port() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * обслуживает соединения, пока сервер не закрыт
+     *
+     * @throws IOException если ошибка Selector
+     */
+    void run() throws IOException {
+        while (selector.isOpen()) {
+            selector.select();
+            if (!selector.isOpen()) return;
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) continue;
+                try {
+                    if (key.isAcceptable()) accept();
+                    else {
+                        Connection connection = (Connection) key.attachment();
+                        if (key.isReadable()) connection.read();
+                        if (key.isValid() && key.isWritable()) connection.write();
+                    }
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+            Batch batch;
+            while ((batch = done.poll()) != null) {
+                inFlight--;
+                SelectionKey key = batch.connection.key;
+                if (!key.isValid()) continue;
+                try {
+                    batch.connection.deliver();
+                } catch (IOException e) {
+                    close(key);
+                }
+            }
+            submit();
+            for (SelectionKey key : selector.keys())
+                if (key.isValid() && key.attachment() != null) ((Connection) key.attachment()).update();
+        }
+    }
+
+    // пачки из ready в пул, пока есть место
+    private void submit() {
+        while (inFlight < maxBatches && !ready.isEmpty()) {
+            inFlight++;
+            workers.execute(ready.poll());
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+            // соединение уже закрыто
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        workers.shutdownNow();
+        for (SelectionKey key : selector.keys()) close(key);
+        selector.close();
+        server.close();
+    }
+
+    /**
+     * пачка партий одного соединения: проверяется одной задачей пула
+     */
+    private final class Batch implements Runnable {
+        final Connection connection;
+        final List<List<String>> games = new ArrayList<>(BATCH);
+        String[] results;
+        // пишет поток пула, читает поток Selector после done.poll
+        volatile boolean finished;
+
+        Batch(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void run() {
+            String[] results = new String[games.size()];
+            for (int i = 0; i < results.length; i++) results[i] = Main.validate(games.get(i), tablebase);
+            this.results = results;
+            finished = true;
+            done.add(this);
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * соединение: разбор входящих байт на строки и партии, очередь пачек и буфер ответов
+     */
+    private final class Connection {
+        final SocketChannel channel;
+        SelectionKey key;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        ByteBuffer out = ByteBuffer.allocate(READ_BUFFER);
+        // пачки в порядке партий: отправленные в пул и собираемая (последняя)
+        final Deque<Batch> batches = new ArrayDeque<>();
+        Batch current;
+        List<String> game = new ArrayList<>();
+        // строка кончилась на '\r': '\n' сразу после нее - тот же перевод строки
+        boolean skipLine;
+        // клиент закрыл свою сторону
+        boolean eof;
+        // ошибка протокола: дальше соединение не читается
+        boolean failed;
+
+        Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        void read() throws IOException {
+            int read = channel.read(in);
+            in.flip();
+            long start = Metrics.start();
+            lines(read < 0);
+            Metrics.parsed(start);
+            in.compact();
+            // буфер целиком занят одной строкой
+            if (!failed && !in.hasRemaining()) fail("error line longer than " + MAX_LINE + " bytes");
+            if (failed) {
+                deliver();
+                return;
+            }
+            if (read < 0) {
+                eof = true;
+                // после последнего разделителя партии нет, если в ней нет строк
+                if (!game.isEmpty()) add();
+            }
+            finish();
+        }
+
+        // строки из in, последняя строка без перевода - только в конце потока
+        private void lines(boolean end) {
+            int start = in.position();
+            for (int i = start; i < in.limit() && !failed; i++) {
+                byte b = in.get(i);
+                if (skipLine) {
+                    skipLine = false;
+                    if (b == '\n') {
+                        start = i + 1;
+                        continue;
+                    }
+                }
+                if (b != '\n' && b != '\r') continue;
+                line(start, i);
+                skipLine = b == '\r';
+                start = i + 1;
+            }
+            if (end && start < in.limit() && !failed) {
+                line(start, in.limit());
+                start = in.limit();
+            }
+            in.position(start);
+        }
+
+        private void line(int start, int end) {
+            String line = new String(in.array(), start, end - start, StandardCharsets.UTF_8);
+            if (line.trim().equals(Main.GAME_DELIMITER)) add();
+            else if (game.size() == MAX_LINES) fail("error game longer than " + MAX_LINES + " lines");
+            else game.add(line);
+        }
+
+        // вместо текущей партии - ошибка, после нее ответов нет, соединение больше не читается
+        private void fail(String message) {
+            failed = true;
+            eof = true;
+            finish();
+            Batch error = new Batch(this);
+            error.results = new String[]{message};
+            error.finished = true;
+            batches.add(error);
+            game = new ArrayList<>();
+        }
+
+        // партия готова
+        private void add() {
+            if (current == null) current = new Batch(this);
+            current.games.add(game);
+            game = new ArrayList<>();
+            if (current.games.size() == BATCH) finish();
+        }
+
+        // собираемая пачка - в очередь пула
+        private void finish() {
+            if (current == null) return;
+            batches.add(current);
+            ready.add(current);
+            current = null;
+        }
+
+        // готовые по порядку ответы - в буфер и в сокет
+        void deliver() throws IOException {
+            while (!batches.isEmpty() && batches.peek().finished) {
+                for (String result : batches.poll().results) {
+                    put(result.getBytes(StandardCharsets.UTF_8));
+                    put(DELIMITER);
+                }
+            }
+            write();
+        }
+
+        private void put(byte[] bytes) {
+            if (out.remaining() < bytes.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out.flip();
+                bigger.put(out);
+                out = bigger;
+            }
+            out.put(bytes);
+        }
+
+        void write() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+        }
+
+        // что ждать от соединения; закрывает его, когда все ответы отправлены
+        void update() {
+            if (eof && batches.isEmpty() && out.position() == 0) {
+                close(key);
+                return;
+            }
+            int ops = 0;
+            if (!eof && batches.size() < MAX_QUEUED && out.position() < OUTPUT_LIMIT) ops |= SelectionKey.OP_READ;
+            if (out.position() > 0) ops |= SelectionKey.OP_WRITE;
+            if (key.interestOps() != ops) key.interestOps(ops);
+        }
+    }
+
+    /**
+     * клиент: шлет файл с партиями на сервер и пишет ответы в файл результатов
+     */
+    static void client(String[] args) {
+        String host = "localhost";
+        int port = DEFAULT_PORT;
+        List<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--host=")) host = arg.substring("--host=".length());
+            else if (arg.startsWith("--port=")) port = Integer.parseInt(arg.substring("--port=".length()));
+            else files.add(arg);
+        }
+        if (files.isEmpty()) {
+            System.out.println("client <файл с партиями> [файл результатов] [--host=адрес] [--port=N]");
+            return;
+        }
+        long start = System.nanoTime();
+        try (SocketChannel socket = SocketChannel.open(new InetSocketAddress(host, port));
+             FileChannel input = FileChannel.open(Paths.get(files.get(0)), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(Paths.get(files.size() > 1 ? files.get(1) : "output.txt"),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            // отправка в отдельном потоке: сервер отвечает, не дожидаясь конца входа
+            Thread sender = new Thread(() -> {
+                try {
+                    long position = 0;
+                    long size = input.size();
+                    while (position < size) position += input.transferTo(position, size - position, socket);
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    System.out.println("Ошибка " + e.getMessage());
+                }
+            }, "client");
+            sender.start();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER);
+            while (socket.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) output.write(buffer);
+                buffer.clear();
+            }
+            sender.join();
+            System.out.printf("%d мс%n", (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            System.out.println("Ошибка " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
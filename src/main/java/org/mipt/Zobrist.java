@@ -0,0 +1,65 @@
+package org.mipt;
+
+import java.util.SplittableRandom;
+
+/**
+ * ключи Zobrist: хеш позиции - xor ключей всех шашек (и SIDE, если ходят черные)
+ */
+final class Zobrist {
+    // ключи [белая простая, белая дамка, черная простая, черная дамка][клетка]
+    private static final long[][] KEYS = new long[4][32];
+    // ход черных
+    static final long SIDE;
+
+    static {
+        // постоянное зерно: хеши одинаковые при каждом запуске, их можно хранить в файлах
+        SplittableRandom random = new SplittableRandom(0x5EED_D4A6_47L);
+        for (long[] keys : KEYS)
+            for (int i = 0; i < keys.length; i++) keys[i] = random.nextLong();
+        SIDE = random.nextLong();
+    }
+
+    private Zobrist() {
+    }
+
+    // ключ шашки
+    static long key(boolean white, boolean king, int square) {
+        return KEYS[(white ? 0 : 2) + (king ? 1 : 0)][square];
+    }
+
+    // ключ шашки на клетке или 0, если клетка пустая
+    static long piece(int white, int black, int kings, int square) {
+        int bit = 1 << square;
+        if (((white | black) & bit) == 0) return 0;
+        return key((white & bit) != 0, (kings & bit) != 0, square);
+    }
+
+    // хеш позиции целиком
+    static long hash(int white, int black, int kings, boolean whiteToMove) {
+        long hash = whiteToMove ? 0 : SIDE;
+        for (int pieces = white | black; pieces != 0; pieces &= pieces - 1)
+            hash ^= piece(white, black, kings, Integer.numberOfTrailingZeros(pieces));
+        return hash;
+    }
+
+    /**
+     * изменение хеша после хода (включая смену стороны)
+     *
+     * @param white    ходят белые
+     * @param move     ход из MoveList
+     * @param captured взятые шашки
+     * @param kings    дамки до хода
+     * @return значение, которое нужно сложить (xor) с хешем
+     */
+    static long move(boolean white, int move, int captured, int kings) {
+        int from = MoveList.from(move);
+        int to = MoveList.to(move);
+        boolean king = (kings & (1 << from)) != 0;
+        long hash = SIDE ^ key(white, king, from) ^ key(white, king || (move & MoveList.PROMOTION) != 0, to);
+        for (; captured != 0; captured &= captured - 1) {
+            int square = Integer.numberOfTrailingZeros(captured);
+            hash ^= key(!white, (kings & (1 << square)) != 0, square);
+        }
+        return hash;
+    }
+}
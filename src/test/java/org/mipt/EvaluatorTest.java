@@ -0,0 +1,70 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class EvaluatorTest {
+    // случайные партии: сумма, измененная на Evaluator.move после каждого хода, равна сумме с нуля
+    @Test
+    void incrementalMatchesFromScratch() throws Exception {
+        Random random = new Random(1);
+        Main.Battle start = Main.play(List.of(PdnGame.INITIAL_WHITE, PdnGame.INITIAL_BLACK));
+        MoveList list = new MoveList();
+        int positions = 0;
+        for (int game = 0; game < 200; game++) {
+            Main.Battle battle = new Main.Battle(start);
+            int pieces = Evaluator.pieces(battle.white, battle.black, battle.kings);
+            boolean white = true;
+            for (int ply = 0; ply < 150; ply++) {
+                int size = MoveGenerator.generate(battle, white ? Main.DRAUGHT.WHITE : Main.DRAUGHT.BLACK, list);
+                if (size == 0) break;
+                int i = random.nextInt(size);
+                pieces += Evaluator.move(white, list.moves[i], list.captures[i], battle.kings);
+                battle.make(list, i);
+                white = !white;
+                assertThat(pieces).isEqualTo(Evaluator.pieces(battle.white, battle.black, battle.kings));
+                assertThat(Evaluator.evaluate(pieces, battle.white, battle.black, battle.kings))
+                        .isEqualTo(Evaluator.evaluate(battle.white, battle.black, battle.kings));
+                positions++;
+            }
+        }
+        assertThat(positions).isGreaterThan(5_000);
+    }
+
+    @Test
+    void batchMatchesSingle() {
+        Random random = new Random(2);
+        int count = 100;
+        int[] white = new int[count];
+        int[] black = new int[count];
+        int[] kings = new int[count];
+        int[] scores = new int[count];
+        for (int i = 0; i < count; i++) {
+            int occupied = random.nextInt();
+            white[i] = occupied & random.nextInt();
+            black[i] = occupied & ~white[i];
+            kings[i] = occupied & random.nextInt() & random.nextInt();
+        }
+        Evaluator.evaluate(white, black, kings, count, scores);
+        for (int i = 0; i < count; i++)
+            assertThat(scores[i]).isEqualTo(Evaluator.evaluate(white[i], black[i], kings[i]));
+    }
+
+    // черные - зеркало белых: повернутая позиция с переставленными цветами дает оценку с обратным знаком
+    @Test
+    void blackMirrorsWhite() {
+        Random random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            int occupied = random.nextInt();
+            int white = occupied & random.nextInt();
+            int black = occupied & ~white;
+            int kings = occupied & random.nextInt();
+            assertThat(Evaluator.evaluate(Integer.reverse(black), Integer.reverse(white), Integer.reverse(kings)))
+                    .isEqualTo(-Evaluator.evaluate(white, black, kings));
+        }
+    }
+}
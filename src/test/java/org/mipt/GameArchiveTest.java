@@ -0,0 +1,123 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class GameArchiveTest {
+    @TempDir
+    Path directory;
+
+    /**
+     * случайные партии из начальной расстановки (ходы от MoveGenerator, по два на строку)
+     * и партии, которые архив хранит текстом
+     */
+    static List<List<String>> games(int count, long seed) throws Exception {
+        Random random = new Random(seed);
+        Main.Battle start = Main.play(List.of(PdnGame.INITIAL_WHITE, PdnGame.INITIAL_BLACK));
+        MoveList list = new MoveList();
+        List<List<String>> games = new ArrayList<>();
+        for (int game = 0; game < count; game++) {
+            List<String> lines = new ArrayList<>(List.of(PdnGame.INITIAL_WHITE, PdnGame.INITIAL_BLACK));
+            Main.Battle battle = new Main.Battle(start);
+            StringBuilder line = new StringBuilder();
+            for (int ply = 0; ply < random.nextInt(80); ply++) {
+                boolean white = ply % 2 == 0;
+                int size = MoveGenerator.generate(battle, white ? Main.DRAUGHT.WHITE : Main.DRAUGHT.BLACK, list);
+                if (size == 0) break;
+                int i = random.nextInt(size);
+                line.append(white ? "" : " ").append(list.toString(i));
+                battle.make(list, i);
+                if (!white) {
+                    lines.add(line.toString());
+                    line.setLength(0);
+                }
+            }
+            if (line.length() > 0) lines.add(line.toString());
+            games.add(lines);
+        }
+        games.add(Arrays.asList("a1 c3", "h8 d6", "a2-b3"));
+        games.add(Arrays.asList("a1 c3", "h8 d6", "c3-d9"));
+        games.add(Arrays.asList("a1 c3", "h8 b4", "c3-d4"));
+        games.add(Arrays.asList("A1 c3", "H8 d6", "A1-b2 h8-g7", "c3-d4"));
+        return games;
+    }
+
+    static Path pack(Path directory, List<List<String>> games) throws Exception {
+        Path file = directory.resolve("games.dga");
+        try (GameArchiveWriter writer = new GameArchiveWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE))) {
+            for (List<String> game : games) writer.write(game);
+        }
+        return file;
+    }
+
+    // партии из архива проверяются с тем же результатом, что и их текст
+    @Test
+    void replayMatchesValidate() throws Exception {
+        List<List<String>> games = games(300, 1);
+        try (GameArchive archive = GameArchive.open(pack(directory, games))) {
+            assertThat(archive.size()).isEqualTo(games.size());
+            int text = 0;
+            for (int i = 0; i < games.size(); i++) {
+                assertThat(archive.validate(i)).as("партия %d", i).isEqualTo(Main.validate(games.get(i)));
+                if (archive.text(i)) text++;
+            }
+            // белая клетка и клетка за краем доски - текстом, остальное ходами
+            assertThat(text).isEqualTo(2);
+        }
+    }
+
+    // номер, равный числу партий, - конец данных в индексе, а не партия
+    @Test
+    void gameAfterLastIsRejected() throws Exception {
+        try (GameArchive archive = GameArchive.open(pack(directory, games(3, 3)))) {
+            int size = archive.size();
+            assertThat(archive.contains(size - 1)).isTrue();
+            assertThat(archive.contains(size)).isFalse();
+            assertThatThrownBy(() -> archive.validate(size)).isInstanceOf(IndexOutOfBoundsException.class);
+            assertThatThrownBy(() -> archive.text(size)).isInstanceOf(IndexOutOfBoundsException.class);
+            assertThatThrownBy(() -> archive.board(size)).isInstanceOf(IndexOutOfBoundsException.class);
+            assertThatThrownBy(() -> archive.moves(size)).isInstanceOf(IndexOutOfBoundsException.class);
+            assertThatThrownBy(() -> archive.lines(size)).isInstanceOf(IndexOutOfBoundsException.class);
+            assertThatThrownBy(() -> archive.end(size)).isInstanceOf(IndexOutOfBoundsException.class);
+        }
+    }
+
+    // чтение через границы окон отображения
+    @Test
+    void mappedFileAcrossWindows() throws Exception {
+        Path file = directory.resolve("bytes");
+        byte[] bytes = new byte[100];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(bytes));
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedFile mapped = new MappedFile(channel, 16);
+            ByteBuffer expected = ByteBuffer.wrap(bytes);
+            assertThat(mapped.size()).isEqualTo(100);
+            for (int position = 0; position < 100; position++) {
+                assertThat(mapped.get(position)).isEqualTo(bytes[position]);
+                if (position + Integer.BYTES <= 100)
+                    assertThat(mapped.getInt(position)).isEqualTo(expected.getInt(position));
+                if (position + Long.BYTES <= 100)
+                    assertThat(mapped.getLong(position)).isEqualTo(expected.getLong(position));
+            }
+            byte[] copy = new byte[60];
+            mapped.get(13, copy);
+            assertThat(copy).isEqualTo(Arrays.copyOfRange(bytes, 13, 73));
+        }
+    }
+}
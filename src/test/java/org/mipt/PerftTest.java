@@ -0,0 +1,31 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PerftTest {
+    static final int DEPTH = 7;
+
+    // число позиций из начальной расстановки совпадает с эталоном русских шашек
+    @Test
+    void initialPositionMatchesReference() {
+        Perft perft = new Perft(DEPTH);
+        for (int depth = 1; depth <= DEPTH; depth++)
+            assertThat(perft.count(Perft.INITIAL_WHITE, Perft.INITIAL_BLACK, 0, true, depth))
+                    .as("perft %d", depth).isEqualTo(Perft.REFERENCE[depth]);
+    }
+
+    // обход через make/unmake на одном поле дает те же числа
+    @Test
+    void battleMatchesReference() throws Exception {
+        Perft perft = new Perft(DEPTH);
+        Main.Battle battle = Main.play(List.of(PdnGame.INITIAL_WHITE, PdnGame.INITIAL_BLACK));
+        for (int depth = 1; depth <= DEPTH; depth++)
+            assertThat(perft.count(battle, true, depth)).as("perft %d", depth).isEqualTo(Perft.REFERENCE[depth]);
+        assertThat(battle.white).isEqualTo(Perft.INITIAL_WHITE);
+        assertThat(battle.black).isEqualTo(Perft.INITIAL_BLACK);
+    }
+}
@@ -0,0 +1,74 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PlyIndexTest {
+    static final int EVERY = 4;
+
+    @TempDir
+    Path directory;
+
+    // поле после ply ходов текста партии, как его разыгрывает Main
+    private static String reference(List<String> lines, int ply) {
+        try {
+            Main.Battle battle = Main.setup(lines);
+            for (int i = 2; i < lines.size() && ply > 0; i++) ply -= Main.playLine(battle, lines.get(i), ply);
+            return battle.battleToString();
+        } catch (Main.WhiteSquareException | Main.CheckRuleException e) {
+            return e.getMessage();
+        }
+    }
+
+    // пустая строка и ход без '-' и ':' - не ходы; вторая партия из-за белой клетки записана текстом
+    private static List<List<String>> skipped() {
+        return List.of(List.of("a1 c3", "h8 d6", "", "c3-b4", "c5 d6-e5", "b4-a5"),
+                List.of("a1 c3", "h8 d6", "", "c3-b4", "c5 d6-e5", "b4-a5", "a2-b3"));
+    }
+
+    // ход считается одинаково в партиях, записанных ходами и текстом
+    @Test
+    void skippedMovesAreNotPlies() throws Exception {
+        List<List<String>> games = skipped();
+        try (GameArchive archive = GameArchive.open(GameArchiveTest.pack(directory, games))) {
+            assertThat(archive.text(0)).isFalse();
+            assertThat(archive.text(1)).isTrue();
+            String[] expected = {"a1 c3\r\nd6 h8", "a1 b4\r\nd6 h8", "a1 b4\r\ne5 h8", "a1 a5\r\ne5 h8"};
+            for (int game = 0; game < games.size(); game++)
+                for (int ply = 0; ply < expected.length; ply++)
+                    assertThat(PlyIndex.position(archive, null, game, ply)).as("партия %d, ход %d", game, ply)
+                            .isEqualTo(expected[ply]);
+        }
+    }
+
+    // с полей индекса получается то же, что при розыгрыше с начала и из текста
+    @Test
+    void snapshotsMatchReplayFromStart() throws Exception {
+        List<List<String>> games = GameArchiveTest.games(100, 2);
+        games.addAll(skipped());
+        Path file = directory.resolve("games.dpi");
+        try (GameArchive archive = GameArchive.open(GameArchiveTest.pack(directory, games))) {
+            PlyIndex.build(archive, file, EVERY);
+            try (PlyIndex index = PlyIndex.open(file, archive)) {
+                assertThat(index.every()).isEqualTo(EVERY);
+                for (int game = 0; game < games.size(); game++) {
+                    List<String> lines = games.get(game);
+                    // в партиях с ошибкой позиции после ошибки не сравниваются с текстом
+                    boolean valid = Main.validate(lines).contains("\r\n");
+                    for (int ply = 0; ply <= 2 * lines.size() + EVERY; ply++) {
+                        String position = PlyIndex.position(archive, index, game, ply);
+                        assertThat(position).as("партия %d, ход %d", game, ply)
+                                .isEqualTo(PlyIndex.position(archive, null, game, ply));
+                        if (valid)
+                            assertThat(position).as("партия %d, ход %d", game, ply).isEqualTo(reference(lines, ply));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * индекс из нескольких архивов с маленькими сегментами: слияния, замена файла и полная таблица сегментов
+ */
+public class PositionIndexTest {
+    static final int ARCHIVES = 3;
+
+    @TempDir
+    Path directory;
+
+    // слияние последних сегментов каждые 3 сегмента
+    @Test
+    void mergesMatchBruteForce() throws Exception {
+        check(10, 3);
+    }
+
+    // слияние, только когда таблица сегментов полна: больше MAX_SEGMENTS сбросов на архив
+    @Test
+    void fullSegmentTableMatchesBruteForce() throws Exception {
+        check(5, Integer.MAX_VALUE);
+    }
+
+    private void check(int runEntries, int mergeSegments) throws Exception {
+        Path file = directory.resolve("positions.idx");
+        // хеш позиции - записи партия << 32 | ход, в порядке партий и ходов
+        Map<Long, List<Long>> expected = new LinkedHashMap<>();
+        long entries = 0;
+        int games = 0;
+        for (int a = 0; a < ARCHIVES; a++) {
+            Path archiveFile = directory.resolve("games" + a);
+            Files.createDirectories(archiveFile);
+            Path packed = GameArchiveTest.pack(archiveFile, GameArchiveTest.games(20, a));
+            try (GameArchive archive = GameArchive.open(packed);
+                 // каждый архив - новым писателем, индекс дописывается
+                 PositionIndexWriter writer = new PositionIndexWriter(file, runEntries, mergeSegments)) {
+                assertThat(writer.games()).isEqualTo(games);
+                writer.add(archive);
+                for (int game = 0; game < archive.size(); game++)
+                    entries += positions(archive, game, games + game, expected);
+                games += archive.size();
+            }
+            assertThat(Files.exists(directory.resolve("positions.idx.tmp"))).isFalse();
+        }
+        try (PositionIndex index = PositionIndex.open(file)) {
+            assertThat(index.games()).isEqualTo(games);
+            assertThat(index.size()).isEqualTo(entries);
+            for (Map.Entry<Long, List<Long>> entry : expected.entrySet()) {
+                List<Long> found = new ArrayList<>();
+                for (long value : index.find(entry.getKey())) found.add(value);
+                assertThat(found).as("хеш %x", entry.getKey()).isEqualTo(entry.getValue());
+            }
+            assertThat(index.find(0x123456789L)).isEmpty();
+        }
+    }
+
+    // позиции партии перебором: расстановка и поле после каждого хода до ошибки, у текстовых - ни одной
+    private static int positions(GameArchive archive, int game, int id, Map<Long, List<Long>> expected) {
+        if (archive.text(game)) return 0;
+        Main.Battle battle = archive.board(game);
+        int ply = 0;
+        expected.computeIfAbsent(Search.hash(battle, true), k -> new ArrayList<>()).add((long) id << 32);
+        try {
+            for (long position = archive.moves(game); position < archive.end(game); ) {
+                boolean white = archive.blackMove(position);
+                position = archive.step(battle, position);
+                expected.computeIfAbsent(Search.hash(battle, white), k -> new ArrayList<>())
+                        .add((long) id << 32 | ++ply);
+            }
+        } catch (Main.CheckRuleException | RuntimeException e) {
+            // дальше позиций нет
+        }
+        return ply + 1;
+    }
+}
@@ -0,0 +1,56 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * партии, разыгранные с начала из кеша, дают тот же результат, что Main.validate без кеша
+ */
+public class ReplayCacheTest {
+    // партии с общими началами: каждая партия, ее начала и начала с ошибкой в конце
+    private static List<List<String>> games() throws Exception {
+        List<List<String>> games = new ArrayList<>();
+        for (List<String> game : GameArchiveTest.games(200, 5)) {
+            games.add(game);
+            for (int end = 3; end < game.size(); end += 3) {
+                games.add(game.subList(0, end));
+                List<String> error = new ArrayList<>(game.subList(0, end));
+                error.add("a2-b3");
+                games.add(error);
+            }
+        }
+        Collections.shuffle(games, new Random(5));
+        return games;
+    }
+
+    private static void check(ReplayCache cache) throws Exception {
+        List<List<String>> games = games();
+        // второй проход - с полями, которые записал первый
+        for (int pass = 0; pass < 2; pass++)
+            for (List<String> game : games)
+                assertThat(Main.validate(game, null, cache)).as("%s", game).isEqualTo(Main.validate(game));
+    }
+
+    // одно поле: почти каждая партия вытесняет предыдущее
+    @Test
+    void singleSnapshot() throws Exception {
+        check(new ReplayCache(1, ReplayCache.DEFAULT_DEPTH));
+    }
+
+    @Test
+    void largeCapacity() throws Exception {
+        check(new ReplayCache(100_000, ReplayCache.DEFAULT_DEPTH));
+    }
+
+    // поля только после первых строк ходов
+    @Test
+    void shallowDepth() throws Exception {
+        check(new ReplayCache(1000, 2));
+    }
+}
@@ -0,0 +1,50 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+public class SprtTest {
+    private final Sprt sprt = new Sprt(0, 10, 0.05, 0.05);
+
+    // при alpha = beta = 0.05 границы - плюс-минус ln 19
+    @Test
+    void bounds() {
+        assertThat(sprt.lower()).isCloseTo(-Math.log(19), within(1e-9));
+        assertThat(sprt.upper()).isCloseTo(Math.log(19), within(1e-9));
+    }
+
+    // без партий и при одних ничьих решения нет
+    @Test
+    void noVariance() {
+        assertThat(sprt.llr(0, 0, 0)).isZero();
+        assertThat(sprt.llr(0, 10, 0)).isZero();
+        assertThat(sprt.llr(10, 0, 0)).isZero();
+        assertThat(sprt.decision(0, 10, 0)).isZero();
+    }
+
+    // LLR растет со счетом и с числом партий при том же счете
+    @Test
+    void llrGrowsWithScore() {
+        assertThat(sprt.llr(60, 20, 20)).isGreaterThan(sprt.llr(50, 20, 30));
+        assertThat(sprt.llr(600, 200, 200)).isGreaterThan(sprt.llr(60, 20, 20));
+        assertThat(sprt.llr(30, 20, 50)).isNegative();
+    }
+
+    @Test
+    void decision() {
+        assertThat(sprt.decision(6, 2, 2)).isZero();
+        assertThat(sprt.decision(600, 200, 200)).isEqualTo(1);
+        assertThat(sprt.decision(3000, 3000, 3000)).isEqualTo(-1);
+        assertThat(sprt.decision(200, 200, 600)).isEqualTo(-1);
+    }
+
+    @Test
+    void elo() {
+        assertThat(Sprt.elo(0, 0, 0)).isEqualTo("-");
+        assertThat(Sprt.elo(10, 0, 10)).startsWith("+0");
+        assertThat(Sprt.elo(60, 20, 20)).startsWith("+");
+        assertThat(Sprt.elo(20, 20, 60)).startsWith("-");
+    }
+}
@@ -0,0 +1,65 @@
+package org.mipt;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * известные окончания из таблиц до 4 фигур (строятся один раз на все тесты, несколько секунд)
+ */
+public class TablebaseTest {
+    @TempDir
+    static Path directory;
+    static Tablebase tablebase;
+
+    @BeforeAll
+    static void build() throws Exception {
+        TablebaseGenerator generator = new TablebaseGenerator(4);
+        generator.build(false);
+        Path file = directory.resolve("tablebase.bin");
+        generator.write(file);
+        tablebase = Tablebase.open(file);
+    }
+
+    @AfterAll
+    static void close() throws Exception {
+        tablebase.close();
+    }
+
+    private static int probe(String white, String black, Main.DRAUGHT draught) throws Exception {
+        return tablebase.probe(Main.play(List.of(white, black)), draught);
+    }
+
+    // дамки на концах большака: кто ходит, тот выходит на диагональ под бой и проигрывает
+    @Test
+    void kingsInOppositeCorners() throws Exception {
+        assertThat(probe("A1", "H8", Main.DRAUGHT.WHITE)).isEqualTo(Tablebase.LOSS);
+        assertThat(probe("A1", "H8", Main.DRAUGHT.BLACK)).isEqualTo(Tablebase.LOSS);
+    }
+
+    // одна дамка на большаке против трех - ничья
+    @Test
+    void threeKingsAgainstKingOnMainRoad() throws Exception {
+        assertThat(probe("C1 E1 G1", "H8", Main.DRAUGHT.WHITE)).isEqualTo(Tablebase.DRAW);
+        assertThat(probe("C1 E1 G1", "H8", Main.DRAUGHT.BLACK)).isEqualTo(Tablebase.DRAW);
+    }
+
+    // большак у трех дамок - выигрыш
+    @Test
+    void threeKingsAgainstKingOffMainRoad() throws Exception {
+        assertThat(probe("A1 C1 E1", "B6", Main.DRAUGHT.WHITE)).isEqualTo(Tablebase.WIN);
+        assertThat(probe("A1 C1 E1", "B6", Main.DRAUGHT.BLACK)).isEqualTo(Tablebase.LOSS);
+    }
+
+    // фигур больше, чем в таблицах
+    @Test
+    void tooManyPieces() throws Exception {
+        assertThat(probe("A1 C1 E1", "B6 H6", Main.DRAUGHT.WHITE)).isEqualTo(Tablebase.UNKNOWN);
+    }
+}
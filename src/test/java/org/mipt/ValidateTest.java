@@ -0,0 +1,62 @@
+package org.mipt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * результаты Main.validate совпадают с исходной реализацией на массиве Position[][] (ожидаемое - ее вывод)
+ */
+public class ValidateTest {
+    private static String validate(String... lines) {
+        return Main.validate(Arrays.asList(lines));
+    }
+
+    @Test
+    void gameFromInitialPosition() {
+        assertThat(validate(PdnGame.INITIAL_WHITE, PdnGame.INITIAL_BLACK,
+                "c3-d4 f6-g5", "d4-c5 b6:d4", "e3:c5 d6:b4", "a3:c5 g5-h4"))
+                .isEqualTo("a1 b2 c1 c5 d2 e1 f2 g1 g3 h2\r\na7 b8 c7 d8 e7 f8 g7 h4 h6 h8");
+    }
+
+    @Test
+    void quietMoveAndCapture() {
+        assertThat(validate("a1 c3", "h8 d6", "c3-b4")).isEqualTo("a1 b4\r\nd6 h8");
+        assertThat(validate("a1 c3", "h8 b4", "c3:a5")).isEqualTo("a1 a5\r\nh8");
+    }
+
+    // клетка, записанная заглавной, после хода дамки пишется как есть
+    @Test
+    void kingMoves() {
+        assertThat(validate("A1 c3", "H8 d6", "A1-b2 h8-g7")).isEqualTo("b2 c3\r\nd6 g7");
+    }
+
+    @Test
+    void whiteCell() {
+        assertThat(validate("a1 c3", "h8 d6", "a2-b3")).isEqualTo("white cell");
+    }
+
+    // клетка за краем доски: исходный checkPosition не находит '9' в verticals и бросает WhiteSquareException
+    @Test
+    void squareOffBoard() {
+        assertThat(validate("a1 c3", "h8 d6", "c3-d9")).isEqualTo("white cell");
+    }
+
+    @Test
+    void quietMoveWhenCaptureIsMandatory() {
+        assertThat(validate("a1 c3", "h8 b4", "c3-d4")).isEqualTo("invalid move");
+        assertThat(validate("a1 c3", "h8 b4 d4", "c3-b4")).isEqualTo("invalid move");
+    }
+
+    @Test
+    void noPieceOnSquare() {
+        assertThat(validate("a1 c3", "h8 d6", "e3-f4")).isEqualTo("error e3");
+    }
+
+    @Test
+    void captureOntoBusyCell() {
+        assertThat(validate("a1 c3", "h8 d6 f6", "c3-d4 d6-e5", "d4:f6")).isEqualTo("busy cell");
+    }
+}
@@ -0,0 +1,131 @@
+package org.mipt;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * сервер на свободном порту: ответы по соединению сравниваются с Main.validate
+ */
+public class ValidationServerTest {
+    private static final String DELIMITER = "\r\n" + Main.GAME_DELIMITER + "\r\n";
+
+    private ValidationServer server;
+    private Thread thread;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = new ValidationServer(0, 2, 2, null);
+        thread = new Thread(() -> {
+            try {
+                server.run();
+            } catch (IOException ignored) {
+                // сервер закрыт
+            }
+        }, "server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        server.close();
+        thread.join(10_000);
+    }
+
+    private SocketChannel connect() throws IOException {
+        return SocketChannel.open(new InetSocketAddress("localhost", server.port()));
+    }
+
+    // части уходят отдельно, с паузой, чтобы сервер прочитал их разными read
+    private static void send(SocketChannel socket, String... parts) throws Exception {
+        for (String part : parts) {
+            ByteBuffer buffer = ByteBuffer.wrap(part.getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) socket.write(buffer);
+            Thread.sleep(100);
+        }
+    }
+
+    // все ответы до закрытия соединения сервером
+    private static String receive(SocketChannel socket) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        while (socket.read(buffer) >= 0) {
+            bytes.write(buffer.array(), 0, buffer.position());
+            buffer.clear();
+        }
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static String expected(List<List<String>> games) {
+        StringBuilder replies = new StringBuilder();
+        for (List<String> game : games) replies.append(Main.validate(game)).append(DELIMITER);
+        return replies.toString();
+    }
+
+    // '\r' в конце одного чтения и '\n' в начале следующего - один перевод строки, а не пустая строка
+    @Test
+    void crLfSplitAcrossReads() throws Exception {
+        try (SocketChannel socket = connect()) {
+            send(socket, "a1 c3\r", "\nh8 d6\r\nc3-b4\r", "\n---\r\n");
+            socket.shutdownOutput();
+            assertThat(receive(socket)).isEqualTo(expected(List.of(Arrays.asList("a1 c3", "h8 d6", "c3-b4"))));
+        }
+    }
+
+    // после закрытия стороны клиента последняя партия без разделителя тоже проверяется
+    @Test
+    void halfCloseWithUndelimitedGame() throws Exception {
+        try (SocketChannel socket = connect()) {
+            send(socket, "a1 c3\nh8 d6\nc3-b4\n---\na1 c3\nh8 b4\nc3:a5");
+            socket.shutdownOutput();
+            assertThat(receive(socket)).isEqualTo(expected(List.of(Arrays.asList("a1 c3", "h8 d6", "c3-b4"),
+                    Arrays.asList("a1 c3", "h8 b4", "c3:a5"))));
+        }
+    }
+
+    // строка во весь входной буфер: ответ на прежнюю партию, ошибка и закрытие без shutdownOutput клиента
+    @Test
+    void lineLongerThanLimit() throws Exception {
+        char[] line = new char[ValidationServer.MAX_LINE];
+        Arrays.fill(line, 'x');
+        try (SocketChannel socket = connect()) {
+            send(socket, "a1 c3\nh8 d6\nc3-b4\n---\n", new String(line));
+            assertThat(receive(socket)).isEqualTo(expected(List.of(Arrays.asList("a1 c3", "h8 d6", "c3-b4")))
+                    + "error line longer than " + ValidationServer.MAX_LINE + " bytes" + DELIMITER);
+        }
+    }
+
+    // много пачек в работе сразу: ответы в порядке партий
+    @Test
+    void pipelinedRepliesInOrder() throws Exception {
+        List<List<String>> games = GameArchiveTest.games(2000, 4);
+        StringBuilder request = new StringBuilder();
+        for (List<String> game : games) request.append(String.join("\n", game)).append("\n---\n");
+        try (SocketChannel socket = connect()) {
+            Thread sender = new Thread(() -> {
+                try {
+                    send(socket, request.toString());
+                    socket.shutdownOutput();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "client");
+            sender.start();
+            String replies = receive(socket);
+            sender.join();
+            assertThat(replies).isEqualTo(expected(games));
+        }
+    }
+}